@@ -17,14 +17,17 @@ plugins {
   id("io.spring.dependency-management") version "1.1.7"
   id("com.diffplug.spotless") version "6.25.0"
   id("com.adarshr.test-logger") version "4.0.0"
+  id("me.champeau.jmh") version "0.7.2"
 }
 
 dependencies {
   implementation("org.springframework.boot:spring-boot-starter-web")
   implementation("org.springframework.boot:spring-boot-starter-data-jpa")
   implementation("org.springframework.boot:spring-boot-starter-validation")
+  implementation("org.springframework.boot:spring-boot-starter-actuator")
   implementation("org.springdoc:springdoc-openapi-starter-webmvc-ui:2.8.4")
   implementation("net.coobird:thumbnailator:0.4.20")
+  implementation("com.github.ben-manes.caffeine:caffeine")
   implementation("org.sejda.imageio:webp-imageio:0.1.6")
 
   implementation("org.springframework.boot:spring-boot-starter-security:3.4.3")
@@ -83,6 +86,24 @@ java {
   }
 }
 
+// Benchmarks of the image pipeline: ./gradlew jmh, results in build/results/jmh.
+// Narrow them down with -Pjmh.includes=<regex>.
+jmh {
+  jmhVersion = "1.37"
+  includes = listOfNotNull(findProperty("jmh.includes")?.toString())
+  profilers = listOf("gc")
+  resultFormat = "JSON"
+  warmupIterations = 3
+  iterations = 5
+  fork = 1
+}
+
+sourceSets {
+  named("jmh") {
+    resources.srcDir("src/test/resources/images")
+  }
+}
+
 tasks.withType<Test> {
   useJUnitPlatform()
   finalizedBy(tasks.jacocoTestReport)
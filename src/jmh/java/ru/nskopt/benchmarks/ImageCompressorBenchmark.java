@@ -0,0 +1,74 @@
+package ru.nskopt.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import ru.nskopt.dto.image.CompressedImage;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.properties.ImageCompressionProperties;
+import ru.nskopt.properties.ImageProcessingProperties;
+import ru.nskopt.services.ImageCompressor;
+
+/**
+ * The whole upload pipeline through {@link ImageCompressor#compress}: one decode, the full image
+ * and every rendition in every configured format, and the placeholder. The GC profiler, on by
+ * default in the build, reports the allocation rate per upload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageCompressorBenchmark {
+
+  /** Sample uploads from the test resources. */
+  @Param({"image.png", "image.jpg", "image.webp"})
+  public String source;
+
+  @Param({"0.8"})
+  public double quality;
+
+  /** Formats encoded on upload, the primary format alone or together with its alternates. */
+  @Param({"WEBP", "WEBP,JPEG"})
+  public String formats;
+
+  private byte[] sourceBytes;
+  private ImageCompressor imageCompressor;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    try (InputStream input = getClass().getClassLoader().getResourceAsStream(source)) {
+      if (input == null) throw new IllegalStateException("Missing sample image " + source);
+      sourceBytes = input.readAllBytes();
+    }
+
+    ImageCompressionProperties compressionProperties = new ImageCompressionProperties();
+    compressionProperties.setQuality(quality);
+    compressionProperties.setFormats(
+        Arrays.stream(formats.split(",")).map(ImageFormat::valueOf).toList());
+    imageCompressor = new ImageCompressor(compressionProperties, new ImageProcessingProperties());
+  }
+
+  @Benchmark
+  public CompressedImage compress() throws IOException {
+    return imageCompressor.compress(sourceBytes);
+  }
+
+  /** Uploads compressed on every core at once, as the processing pool does under load. */
+  @Benchmark
+  @Threads(Threads.MAX)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public CompressedImage compressConcurrently() throws IOException {
+    return imageCompressor.compress(sourceBytes);
+  }
+}
@@ -0,0 +1,78 @@
+package ru.nskopt.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import net.coobird.thumbnailator.Thumbnails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.properties.ImageCompressionProperties;
+import ru.nskopt.services.ImageCompressor;
+
+/**
+ * Stages of the upload pipeline measured one by one, with plain ImageIO and Thumbnailator calls
+ * the way {@link ImageCompressor} makes them, so a regression in {@link ImageCompressorBenchmark}
+ * can be traced to decode, resize or encode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageStagesBenchmark {
+
+  /** Sample uploads from the test resources. */
+  @Param({"image.png", "image.jpg", "image.webp"})
+  public String source;
+
+  @Param({"0.8"})
+  public double quality;
+
+  private byte[] sourceBytes;
+  private BufferedImage decoded;
+  private BufferedImage resized;
+  private final int size = new ImageCompressionProperties().getSize();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    try (InputStream input = getClass().getClassLoader().getResourceAsStream(source)) {
+      if (input == null) throw new IllegalStateException("Missing sample image " + source);
+      sourceBytes = input.readAllBytes();
+    }
+
+    decoded = decode();
+    resized = resize();
+  }
+
+  @Benchmark
+  public BufferedImage decode() throws IOException {
+    return ImageIO.read(new ByteArrayInputStream(sourceBytes));
+  }
+
+  @Benchmark
+  public BufferedImage resize() throws IOException {
+    return Thumbnails.of(decoded).size(size, size).keepAspectRatio(false).asBufferedImage();
+  }
+
+  @Benchmark
+  public byte[] encodeWebp() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Thumbnails.of(resized)
+        .size(size, size)
+        .keepAspectRatio(false)
+        .outputFormat(ImageFormat.WEBP.getFormatName())
+        .outputQuality(quality)
+        .toOutputStream(output);
+    return output.toByteArray();
+  }
+}
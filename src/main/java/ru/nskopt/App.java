@@ -4,9 +4,11 @@ import org.springframework.boot.Banner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import ru.nskopt.properties.ImageCompressionProperties;
 
 @SpringBootApplication
+@EnableScheduling
 @EnableConfigurationProperties(ImageCompressionProperties.class)
 public class App {
   public static void main(String[] args) {
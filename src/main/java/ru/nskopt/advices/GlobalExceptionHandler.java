@@ -2,8 +2,11 @@ package ru.nskopt.advices;
 
 import io.jsonwebtoken.security.SignatureException;
 import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.ConstraintViolationException;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -13,6 +16,9 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.NoHandlerFoundException;
 import ru.nskopt.exceptions.AuthenticationFailedException;
+import ru.nskopt.exceptions.ImageAdmissionException;
+import ru.nskopt.exceptions.ImageProcessingException;
+import ru.nskopt.exceptions.InvalidCursorException;
 import ru.nskopt.exceptions.ResourceNotFoundException;
 import ru.nskopt.exceptions.UnsupportedImageFormatException;
 import ru.nskopt.exceptions.UserExistsException;
@@ -70,6 +76,29 @@ public class GlobalExceptionHandler {
     return new ErrorResponse("Invalid input. Please check your request format or parameters.");
   }
 
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  @ExceptionHandler(ConstraintViolationException.class)
+  @Operation(
+      summary = "Обработка ошибок валидации параметров",
+      description = "Возвращает сообщение об ошибке, если параметры запроса не прошли валидацию.")
+  public ErrorResponse handleConstraintViolationException(
+      ConstraintViolationException e, WebRequest request) {
+    log.info("Parameter validation failed: {}, Request details: {}", e.getMessage(), request);
+    return new ErrorResponse("Validation error: " + e.getMessage());
+  }
+
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  @ExceptionHandler(InvalidCursorException.class)
+  @Operation(
+      summary = "Обработка ошибки 'Неверный курсор'",
+      description =
+          "Возвращает сообщение об ошибке, если курсор страницы повреждён или выдан для другой "
+              + "сортировки.")
+  public ErrorResponse handleInvalidCursorException(InvalidCursorException e, WebRequest request) {
+    log.info("Invalid cursor: {}, Request details: {}", e.getMessage(), request);
+    return new ErrorResponse("Invalid cursor: " + e.getMessage());
+  }
+
   @ResponseStatus(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
   @ExceptionHandler(UnsupportedImageFormatException.class)
   @Operation(
@@ -82,6 +111,32 @@ public class GlobalExceptionHandler {
     return new ErrorResponse("Unsupported image format: " + e.getMessage());
   }
 
+  @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+  @ExceptionHandler(ImageProcessingException.class)
+  @Operation(
+      summary = "Обработка ошибки 'Не удалось обработать изображение'",
+      description =
+          "Возвращает сообщение об ошибке, если загруженное изображение не удалось сжать.")
+  public ErrorResponse handleImageProcessingException(
+      ImageProcessingException e, WebRequest request) {
+    log.info("Image processing failed: {}, Request details: {}", e.getMessage(), request);
+    return new ErrorResponse("Image processing failed: " + e.getMessage());
+  }
+
+  @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+  @ExceptionHandler(ImageAdmissionException.class)
+  @Operation(
+      summary = "Обработка ошибки 'Сервер занят обработкой изображений'",
+      description =
+          "Возвращает сообщение об ошибке и заголовок Retry-After, если изображение не может "
+              + "быть принято на обработку сейчас.")
+  public ErrorResponse handleImageAdmissionException(
+      ImageAdmissionException e, HttpServletResponse response) {
+    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()));
+    log.info("Image upload rejected: {}", e.getMessage());
+    return new ErrorResponse(e.getMessage());
+  }
+
   @ResponseStatus(HttpStatus.CONFLICT)
   @ExceptionHandler(UserExistsException.class)
   @Operation(
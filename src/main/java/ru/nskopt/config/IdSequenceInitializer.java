@@ -0,0 +1,54 @@
+package ru.nskopt.config;
+
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the ID sequences of {@code images} and {@code images_data} past the IDs handed out while
+ * they were identity columns. Runs before the {@code EntityManagerFactory} is created, so
+ * Hibernate never takes a block of IDs from a sequence that has not been moved yet: unlike {@link
+ * SchemaMigrationRunner}, which runs once uploads and scheduled jobs may already be inserting.
+ *
+ * <p>The sequences are created here if needed, with the increment Hibernate expects for an
+ * allocation size of 50, so that {@code ddl-auto: update} keeps them.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IdSequenceInitializer implements InitializingBean {
+
+  private static final List<String> TABLES = List.of("images", "images_data");
+
+  private final JdbcTemplate jdbcTemplate;
+
+  @Override
+  public void afterPropertiesSet() {
+    for (String table : TABLES)
+      jdbcTemplate.execute(
+          """
+          DO $$
+          BEGIN
+            CREATE SEQUENCE IF NOT EXISTS %1$s_seq START WITH 1 INCREMENT BY 50;
+            IF to_regclass('%1$s') IS NOT NULL THEN
+              PERFORM setval('%1$s_seq', m) FROM (SELECT MAX(id) AS m FROM %1$s) t
+              WHERE m > (SELECT last_value FROM %1$s_seq);
+            END IF;
+          END $$
+          """
+              .formatted(table));
+    log.info("Initialized ID sequences of {}", TABLES);
+  }
+
+  /** Makes JPA wait for the sequences to be moved. */
+  @Component
+  static class JpaDependency extends EntityManagerFactoryDependsOnPostProcessor {
+    JpaDependency() {
+      super(IdSequenceInitializer.class);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package ru.nskopt.config;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import ru.nskopt.properties.ImageProcessingProperties;
+import ru.nskopt.properties.ImageReencodeProperties;
+
+@Configuration
+public class ImageProcessingConfig {
+
+  @Bean
+  ThreadPoolTaskExecutor imageProcessingExecutor(ImageProcessingProperties properties) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(properties.getThreads());
+    executor.setMaxPoolSize(properties.getThreads());
+    executor.setQueueCapacity(properties.getQueueCapacity());
+    executor.setThreadNamePrefix("image-processing-");
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+    executor.setWaitForTasksToCompleteOnShutdown(false);
+    return executor;
+  }
+
+  @Bean
+  ThreadPoolTaskExecutor imageReencodeExecutor(ImageReencodeProperties properties) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(properties.getThreads());
+    executor.setMaxPoolSize(properties.getThreads());
+    executor.setThreadNamePrefix("image-reencode-");
+    executor.setThreadPriority(Thread.MIN_PRIORITY);
+    executor.setWaitForTasksToCompleteOnShutdown(false);
+    return executor;
+  }
+}
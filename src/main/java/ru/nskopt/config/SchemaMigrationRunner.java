@@ -0,0 +1,81 @@
+package ru.nskopt.config;
+
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies schema changes that {@code ddl-auto: update} cannot make on its own. Every statement
+ * must be idempotent: they are executed on each startup. Changes that must be in place before
+ * JPA starts belong in {@link IdSequenceInitializer} instead.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SchemaMigrationRunner implements ApplicationRunner {
+
+  private static final List<String> MIGRATIONS =
+      List.of(
+          // images.image_data_id used to be a one-to-one join column with a unique constraint,
+          // which prevents several images from sharing deduplicated data. Only a constraint on
+          // exactly that column is dropped.
+          """
+          DO $$
+          DECLARE c text;
+          BEGIN
+            FOR c IN SELECT conname FROM pg_constraint
+                WHERE conrelid = 'images'::regclass AND contype = 'u'
+                  AND conkey = ARRAY[(
+                    SELECT a.attnum FROM pg_attribute a
+                    WHERE a.attrelid = conrelid AND a.attname = 'image_data_id')]
+            LOOP
+              EXECUTE 'ALTER TABLE images DROP CONSTRAINT ' || quote_ident(c);
+            END LOOP;
+          END $$
+          """,
+          // Images uploaded before their creation time was recorded get the time of this
+          // migration, so the orphan collector gives them the full grace period from now on.
+          "UPDATE images SET created_at = now() WHERE created_at IS NULL",
+          // Renditions encoded before formats were introduced are all in the primary format, and
+          // the old unique (image_data_id, name) key would forbid their alternates.
+          "UPDATE images_renditions SET format = 'WEBP' WHERE format IS NULL",
+          """
+          DO $$
+          DECLARE c text;
+          BEGIN
+            FOR c IN SELECT conname FROM pg_constraint
+                WHERE conrelid = 'images_renditions'::regclass AND contype = 'u'
+                  AND NOT EXISTS (
+                    SELECT 1 FROM pg_attribute a
+                    WHERE a.attrelid = conrelid AND a.attname = 'format'
+                      AND a.attnum = ANY(conkey))
+            LOOP
+              EXECUTE 'ALTER TABLE images_renditions DROP CONSTRAINT ' || quote_ident(c);
+            END LOOP;
+          END $$
+          """,
+          // Keyset pagination of the product listing seeks in these; the expressions must match
+          // the sort keys of ProductPageRepositoryImpl exactly. Names are sorted by code point,
+          // which replaced the database collation.
+          "DROP INDEX IF EXISTS products_name_id_idx",
+          """
+          CREATE INDEX IF NOT EXISTS products_name_c_id_idx
+          ON products ((COALESCE(name, '') COLLATE "C"), id)
+          """,
+          """
+          CREATE INDEX IF NOT EXISTS products_retail_price_id_idx
+          ON products ((COALESCE(retail_price, 0)), id)
+          """);
+
+  private final JdbcTemplate jdbcTemplate;
+
+  @Override
+  public void run(ApplicationArguments args) {
+    MIGRATIONS.forEach(jdbcTemplate::execute);
+    log.info("Applied {} schema migrations", MIGRATIONS.size());
+  }
+}
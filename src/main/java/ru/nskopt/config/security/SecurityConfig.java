@@ -38,6 +38,11 @@ public class SecurityConfig {
             auth ->
                 auth.requestMatchers("/api/auth/**", "/swagger-ui/**", "/v3/api-docs/**")
                     .permitAll()
+                    .requestMatchers("/actuator/health")
+                    .permitAll()
+                    // Metrics describe the JVM, the database pool and the image queues.
+                    .requestMatchers("/actuator/**")
+                    .hasRole("ADMIN")
                     .anyRequest()
                     .permitAll()) // todo
         .exceptionHandling(
@@ -3,19 +3,48 @@ package ru.nskopt.controllers;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.constraints.Size;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import ru.nskopt.dto.image.ImageMetadata;
+import ru.nskopt.dto.image.ImageUploadResponse;
+import ru.nskopt.dto.image.OrphanImageReport;
+import ru.nskopt.dto.image.ResizeRequest;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.entities.image.ImageStatus;
+import ru.nskopt.exceptions.ImageProcessingException;
 import ru.nskopt.exceptions.UnsupportedImageFormatException;
+import ru.nskopt.services.ImageFormatNegotiator;
+import ru.nskopt.services.ImageResizeService;
 import ru.nskopt.services.ImageService;
+import ru.nskopt.services.OrphanImageCollector;
 
 @RestController
 @RequiredArgsConstructor
@@ -23,13 +52,32 @@ import ru.nskopt.services.ImageService;
 @Tag(name = "Image Controller", description = "Управление изображениями")
 public class ImageController {
 
+  private static final CacheControl IMMUTABLE_CACHE_CONTROL =
+      CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+
+  private static final String ACCEPT_CH = "Accept-CH";
+  private static final String CLIENT_HINTS = "DPR, Width, Save-Data";
+  private static final String VARY = CLIENT_HINTS + ", " + HttpHeaders.ACCEPT;
+
+  private static final int MAX_FETCH_IDS = 100;
+
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
   private final ImageService imageService;
+  private final ImageResizeService imageResizeService;
+  private final ImageFormatNegotiator imageFormatNegotiator;
+  private final OrphanImageCollector orphanImageCollector;
 
   @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
   @PreAuthorize("hasAnyRole('MANAGER', 'ADMIN')")
   @Operation(
       summary = "Загрузить изображение",
-      description = "Загружает изображение и возвращает его ID.")
+      description =
+          "Загружает изображение и возвращает его ID. Если сервер занят обработкой других "
+              + "изображений, возвращает 429 с заголовком Retry-After.")
   public Long createImage(
       @Parameter(description = "Файл изображения", required = true, example = "file.png")
           @RequestParam
@@ -38,24 +86,312 @@ public class ImageController {
 
     String contentType = file.getContentType();
 
-    if (contentType == null
-        || (!contentType.equals(MediaType.IMAGE_PNG_VALUE)
-            && !contentType.equals(MediaType.IMAGE_JPEG_VALUE)
-            && !contentType.equals("image/webp"))) {
+    if (!isSupported(contentType)) {
       throw new UnsupportedImageFormatException("Unsupported image format: " + contentType);
     }
 
     return imageService.saveImage(file).getId();
   }
 
-  @GetMapping(
-      value = "/{id}",
-      produces = {"image/webp"})
+  @PostMapping(value = "/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  @PreAuthorize("hasAnyRole('MANAGER', 'ADMIN')")
+  @Operation(
+      summary = "Загрузить несколько изображений",
+      description =
+          "Загружает изображения одним запросом и возвращает их ID в порядке файлов. "
+              + "Ошибка в одном файле не прерывает загрузку остальных.")
+  public List<ImageUploadResponse> createImages(
+      @Parameter(description = "Файлы изображений", required = true) @RequestParam
+          List<MultipartFile> files)
+      throws IOException {
+    ImageUploadResponse[] responses = new ImageUploadResponse[files.size()];
+    List<Integer> positions = new ArrayList<>();
+    List<MultipartFile> sources = new ArrayList<>();
+
+    for (int i = 0; i < files.size(); i++) {
+      MultipartFile file = files.get(i);
+      if (!isSupported(file.getContentType())) {
+        responses[i] =
+            new ImageUploadResponse(null, "Unsupported image format: " + file.getContentType());
+        continue;
+      }
+
+      sources.add(file);
+      positions.add(i);
+    }
+
+    List<ImageUploadResponse> saved = imageService.saveImages(sources);
+    for (int i = 0; i < saved.size(); i++) responses[positions.get(i)] = saved.get(i);
+
+    return List.of(responses);
+  }
+
+  private static boolean isSupported(String contentType) {
+    return contentType != null
+        && (contentType.equals(MediaType.IMAGE_PNG_VALUE)
+            || contentType.equals(MediaType.IMAGE_JPEG_VALUE)
+            || contentType.equals("image/webp"));
+  }
+
+  @GetMapping("/orphans")
+  @PreAuthorize("hasRole('ADMIN')")
+  @Operation(
+      summary = "Отчёт о неиспользуемых изображениях",
+      description =
+          "Показывает, сколько изображений, не привязанных к товарам и категориям, "
+              + "и сколько байт будет удалено при следующей очистке. Ничего не удаляет.")
+  public OrphanImageReport getOrphanImages() {
+    return orphanImageCollector.report();
+  }
+
+  @GetMapping
+  @Operation(
+      summary = "Получить несколько изображений",
+      description =
+          "Возвращает изображения одним ответом multipart/mixed в порядке ID. Каждая часть "
+              + "содержит заголовки Content-Type, Content-ID с ID изображения и ETag. "
+              + "Изображения, которые ещё обрабатываются или не удалось обработать, "
+              + "пропускаются.")
+  public void getImagesData(
+      @Parameter(description = "ID изображений, не больше " + MAX_FETCH_IDS, example = "1,2,3")
+          @RequestParam
+          @Size(min = 1, max = MAX_FETCH_IDS)
+          List<Long> ids,
+      @Parameter(description = "Название размера: thumb, medium, full", example = "thumb")
+          @RequestParam(required = false)
+          String size,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      HttpServletResponse response)
+      throws IOException {
+    Integer width = size != null ? imageService.getRenditionWidth(size) : null;
+    List<ImageMetadata> images =
+        imageService.selectRenditions(ids, width, imageFormatNegotiator.acceptable(accept));
+
+    String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    response.setContentType("multipart/mixed; boundary=" + boundary);
+    response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+
+    OutputStream outputStream = response.getOutputStream();
+    for (ImageMetadata image : images) {
+      if (!ImageService.isServable(image)) continue;
+
+      StringBuilder partHeaders =
+          new StringBuilder("\r\n--")
+              .append(boundary)
+              .append("\r\nContent-Type: ")
+              .append(image.getFormat().getMediaType())
+              .append("\r\nContent-ID: <")
+              .append(image.getId())
+              .append(">");
+      if (image.getContentHash() != null)
+        partHeaders.append("\r\nETag: \"").append(image.getContentHash()).append("\"");
+      partHeaders.append("\r\n\r\n");
+      outputStream.write(partHeaders.toString().getBytes(StandardCharsets.US_ASCII));
+
+      imageService.writeImageData(image, outputStream);
+      // Sends each image as soon as it is read instead of buffering the whole response.
+      outputStream.flush();
+    }
+    outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @GetMapping("/{id}")
   @Operation(
       summary = "Получить данные изображения",
-      description = "Возвращает бинарные данные изображения по его ID.")
-  public byte[] getImageData(
-      @Parameter(description = "ID изображения", example = "1") @PathVariable Long id) {
-    return imageService.getImageData(id);
+      description =
+          "Возвращает бинарные данные изображения по его ID. Поддерживает If-None-Match, "
+              + "Range и If-Range, изменение размера и клиентские подсказки DPR, Width "
+              + "и Save-Data. Формат (WebP, JPEG) выбирается по заголовку Accept. "
+              + "Пока изображение обрабатывается, возвращает 202.")
+  public void getImageData(
+      @Parameter(description = "ID изображения", example = "1") @PathVariable Long id,
+      @Parameter(description = "Название размера: thumb, medium, full", example = "thumb")
+          @RequestParam(required = false)
+          String size,
+      @Parameter(description = "Требуемая ширина в CSS-пикселях", example = "150")
+          @RequestParam(required = false)
+          Integer w,
+      @Parameter(description = "Требуемая высота в CSS-пикселях", example = "150")
+          @RequestParam(required = false)
+          Integer h,
+      @Parameter(description = "Качество от 0.1 до 1.0", example = "0.8")
+          @RequestParam(required = false)
+          Double q,
+      @RequestHeader(value = "DPR", required = false) Double dpr,
+      @RequestHeader(value = "Width", required = false) Integer widthHint,
+      @RequestHeader(value = "Save-Data", required = false) String saveData,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      WebRequest webRequest,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException {
+    ImageMetadata metadata = imageService.getImageMetadata(id);
+
+    if (metadata.getStatus() == ImageStatus.PROCESSING) {
+      response.setStatus(HttpStatus.ACCEPTED.value());
+      response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+      return;
+    }
+
+    if (metadata.getStatus() == ImageStatus.FAILED)
+      throw new ImageProcessingException("Image " + id + " could not be processed");
+
+    response.setHeader(ACCEPT_CH, CLIENT_HINTS);
+    response.addHeader(HttpHeaders.VARY, VARY);
+
+    Set<ImageFormat> acceptable = imageFormatNegotiator.acceptable(accept);
+    Integer width = size != null ? imageService.getRenditionWidth(size) : w;
+    ResizeRequest resize =
+        imageResizeService.resolve(
+            width,
+            h,
+            q,
+            dpr,
+            widthHint,
+            "on".equalsIgnoreCase(saveData),
+            imageFormatNegotiator.preferred(acceptable));
+
+    if (resize.standard()) {
+      ImageMetadata rendition = imageService.selectRendition(metadata, resize.width(), acceptable);
+      if (checkNotModified(rendition.getContentHash(), webRequest, response)) return;
+
+      response.setContentType(rendition.getFormat().getMediaType());
+      response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+      String range = request.getHeader(HttpHeaders.RANGE);
+      if (range != null
+          && ifRangeMatches(request, rendition.getContentHash())
+          && writeRanges(rendition, range, request, response)) return;
+
+      if (sendFile(rendition, null, request, response)) return;
+
+      imageService.writeImageData(rendition, response.getOutputStream());
+      return;
+    }
+
+    if (checkNotModified(imageResizeService.etag(metadata, resize), webRequest, response)) return;
+
+    response.setContentType(resize.format().getMediaType());
+    imageResizeService.writeResized(metadata, resize, response.getOutputStream());
+  }
+
+  /** A range is only served if the copy the client has, named by If-Range, is still current. */
+  private static boolean ifRangeMatches(HttpServletRequest request, String etag) {
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    return ifRange == null || (etag != null && ifRange.equals("\"" + etag + "\""));
+  }
+
+  /**
+   * Writes a 206 response with the requested ranges, reading only those ranges from storage.
+   *
+   * @return {@code false} if the Range header is to be ignored and the full image sent instead
+   */
+  private boolean writeRanges(
+      ImageMetadata metadata,
+      String rangeHeader,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException {
+    long length = imageService.getImageLength(metadata);
+
+    List<HttpRange> ranges;
+    try {
+      ranges = HttpRange.parseRanges(rangeHeader);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+
+    ranges = ranges.stream().filter(range -> range.getRangeStart(length) < length).toList();
+    if (ranges.isEmpty()) {
+      response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+      response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+      return true;
+    }
+
+    // Overlapping ranges asking for more than the whole image are answered with the whole image.
+    long total =
+        ranges.stream()
+            .mapToLong(range -> range.getRangeEnd(length) - range.getRangeStart(length) + 1)
+            .sum();
+    if (ranges.size() > 1 && total >= length) return false;
+
+    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+
+    if (ranges.size() == 1) {
+      HttpRange range = ranges.get(0);
+      response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, length));
+      if (sendFile(metadata, range, request, response)) return true;
+
+      long start = range.getRangeStart(length);
+      long count = range.getRangeEnd(length) - start + 1;
+      response.setContentLengthLong(count);
+      imageService.writeImageData(metadata, start, count, response.getOutputStream());
+      return true;
+    }
+
+    String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+
+    OutputStream outputStream = response.getOutputStream();
+    for (HttpRange range : ranges) {
+      String partHeaders =
+          "\r\n--"
+              + boundary
+              + "\r\nContent-Type: "
+              + metadata.getFormat().getMediaType()
+              + "\r\nContent-Range: "
+              + contentRange(range, length)
+              + "\r\n\r\n";
+      outputStream.write(partHeaders.getBytes(StandardCharsets.US_ASCII));
+
+      long start = range.getRangeStart(length);
+      imageService.writeImageData(
+          metadata, start, range.getRangeEnd(length) - start + 1, outputStream);
+    }
+    outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+    return true;
+  }
+
+  private static String contentRange(HttpRange range, long length) {
+    return "bytes " + range.getRangeStart(length) + "-" + range.getRangeEnd(length) + "/" + length;
+  }
+
+  /**
+   * Lets Tomcat send images kept in local files with sendfile, so the bytes go from the page cache
+   * to the socket without being copied through the JVM. Tomcat offers sendfile on plain
+   * connectors only: under TLS it reports no support, and a compressed response cannot be sent
+   * from the file as is. Behind TLS terminated by Tomcat the images are therefore streamed by the
+   * storage instead, which is the common path in production.
+   *
+   * @param range part of the file to send, {@code null} for the whole file
+   */
+  private boolean sendFile(
+      ImageMetadata metadata,
+      HttpRange range,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException {
+    if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) return false;
+
+    Optional<Path> file = imageService.getImageFile(metadata);
+    if (file.isEmpty()) return false;
+
+    long length = Files.size(file.get());
+    long start = range != null ? range.getRangeStart(length) : 0;
+    long end = range != null ? range.getRangeEnd(length) + 1 : length;
+
+    response.setContentLengthLong(end - start);
+    request.setAttribute(SENDFILE_FILENAME, file.get().toAbsolutePath().toString());
+    request.setAttribute(SENDFILE_START, start);
+    request.setAttribute(SENDFILE_END, end);
+    return true;
+  }
+
+  private static boolean checkNotModified(
+      String etag, WebRequest webRequest, HttpServletResponse response) {
+    if (etag == null) return false;
+
+    response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL.getHeaderValue());
+    return webRequest.checkNotModified(etag);
   }
 }
@@ -4,8 +4,11 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import java.util.List;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -18,8 +21,10 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import ru.nskopt.dto.product.ProductSort;
 import ru.nskopt.dto.product.ProductUpdateRequest;
 import ru.nskopt.dto.product.ProductUserResponse;
 import ru.nskopt.services.ProductService;
@@ -32,16 +37,38 @@ import ru.nskopt.utils.SecurityUtils;
 @Tag(name = "Product Controller", description = "Управление товарами")
 public class ProductController {
 
+  private static final int DEFAULT_PAGE_SIZE = 50;
+  private static final int MAX_PAGE_SIZE = 200;
+
   private final ProductService productService;
   private final SecurityUtils securityUtils;
 
   @GetMapping
-  @Operation(summary = "Получить все продукты")
-  public ResponseEntity<?> getAllCategories(Authentication authentication) {
+  @Operation(
+      summary = "Получить продукты",
+      description =
+          "Возвращает страницу продуктов и курсор следующей страницы. Время ответа не зависит "
+              + "от номера страницы. Курсор действителен только с той же сортировкой.")
+  public ResponseEntity<?> getAllCategories(
+      @Parameter(description = "Курсор nextCursor из предыдущего ответа")
+          @RequestParam(required = false)
+          String cursor,
+      @Parameter(description = "Размер страницы, не больше " + MAX_PAGE_SIZE, example = "50")
+          @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE)
+          @Min(1)
+          @Max(MAX_PAGE_SIZE)
+          int limit,
+      @Parameter(description = "Поле сортировки: ID, NAME, PRICE", example = "NAME")
+          @RequestParam(defaultValue = "ID")
+          ProductSort sort,
+      @Parameter(description = "Направление сортировки: ASC, DESC", example = "ASC")
+          @RequestParam(defaultValue = "ASC")
+          Sort.Direction direction,
+      Authentication authentication) {
     if (securityUtils.hasManagerRole(authentication))
-      return ResponseEntity.ok(productService.findAllAdmin());
+      return ResponseEntity.ok(productService.findAllAdmin(sort, direction, cursor, limit));
 
-    return ResponseEntity.ok(productService.findAll());
+    return ResponseEntity.ok(productService.findAll(sort, direction, cursor, limit));
   }
 
   @GetMapping("/{id}")
@@ -1,8 +1,10 @@
 package ru.nskopt.dto.category;
 
+import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import ru.nskopt.dto.image.ImagePreview;
 
 @Data
 @AllArgsConstructor
@@ -11,4 +13,5 @@ public class CategoryUserResponse {
   private Long id;
   private String name;
   private Long[] imagesIds;
+  private List<ImagePreview> images;
 }
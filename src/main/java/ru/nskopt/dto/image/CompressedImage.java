@@ -0,0 +1,14 @@
+package ru.nskopt.dto.image;
+
+import java.util.List;
+
+/**
+ * Output of compressing an upload: the full image and renditions in the primary format, plus
+ * {@code alternates} with all of them, the full image included, in the other formats, and a
+ * {@code placeholder} data URI small enough to embed in JSON.
+ */
+public record CompressedImage(
+    EncodedImage full,
+    List<EncodedImage> renditions,
+    List<EncodedImage> alternates,
+    String placeholder) {}
@@ -0,0 +1,5 @@
+package ru.nskopt.dto.image;
+
+import ru.nskopt.entities.image.ImageFormat;
+
+public record EncodedImage(String name, ImageFormat format, int width, int height, byte[] data) {}
@@ -0,0 +1,39 @@
+package ru.nskopt.dto.image;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.entities.image.ImageStatus;
+import ru.nskopt.entities.image.ImageStorageType;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageMetadata {
+  private Long id;
+  private Long imageDataId;
+  private String contentHash;
+  private ImageStatus status;
+  private Integer width;
+  private ImageStorageType storage;
+
+  /** Size in bytes, {@code null} if it has not been recorded. */
+  private Integer dataSize;
+
+  /** Rendition to serve instead of the full image, {@code null} for the full image. */
+  private String rendition;
+
+  private ImageFormat format;
+
+  public ImageMetadata(
+      Long id,
+      Long imageDataId,
+      String contentHash,
+      ImageStatus status,
+      Integer width,
+      ImageStorageType storage,
+      Integer dataSize) {
+    this(id, imageDataId, contentHash, status, width, storage, dataSize, null, ImageFormat.PRIMARY);
+  }
+}
@@ -0,0 +1,21 @@
+package ru.nskopt.dto.image;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * What a client needs to lay out an image before loading it. Dimensions and placeholder are
+ * {@code null} until the image has been processed.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImagePreview {
+  private Long id;
+  private Integer width;
+  private Integer height;
+
+  /** Data URI of a tiny blurred version of the image. */
+  private String placeholder;
+}
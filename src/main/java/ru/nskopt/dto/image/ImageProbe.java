@@ -0,0 +1,8 @@
+package ru.nskopt.dto.image;
+
+/** What the header of an uploaded image says, read without decoding its pixels. */
+public record ImageProbe(String format, int width, int height) {
+  public long pixels() {
+    return (long) width * height;
+  }
+}
@@ -0,0 +1,23 @@
+package ru.nskopt.dto.image;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.nskopt.entities.image.ImageFormat;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageRenditionMetadata {
+  private Long id;
+  private Long imageDataId;
+  private String name;
+  private Integer width;
+  private String contentHash;
+
+  /** {@code null} for renditions stored before formats were introduced, which are primary. */
+  private ImageFormat format;
+
+  /** Size in bytes, {@code null} for renditions stored before it was recorded. */
+  private Integer dataSize;
+}
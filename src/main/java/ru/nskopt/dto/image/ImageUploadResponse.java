@@ -0,0 +1,19 @@
+package ru.nskopt.dto.image;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageUploadResponse {
+  @Schema(description = "ID изображения, если файл загружен", example = "1")
+  private Long id;
+
+  @Schema(
+      description = "Причина, по которой файл не загружен",
+      example = "Unsupported image format")
+  private String error;
+}
@@ -0,0 +1,23 @@
+package ru.nskopt.dto.image;
+
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** What the orphaned image collector would remove if it ran now. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrphanImageReport {
+  /** Images created before this and attached to nothing are collected. */
+  private Instant createdBefore;
+
+  private long images;
+
+  /** Image data rows used only by those images, released together with them. */
+  private long imageData;
+
+  /** Size of the full images of those rows. */
+  private long bytes;
+}
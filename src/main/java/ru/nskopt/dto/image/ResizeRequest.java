@@ -0,0 +1,10 @@
+package ru.nskopt.dto.image;
+
+import ru.nskopt.entities.image.ImageFormat;
+
+/**
+ * Target of an image request after client hints have been applied and dimensions snapped. A
+ * {@code null} width means the full size; {@code format} is what a resized image is encoded in.
+ */
+public record ResizeRequest(
+    Integer width, Integer height, double quality, boolean standard, ImageFormat format) {}
@@ -0,0 +1,52 @@
+package ru.nskopt.dto.product;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.springframework.data.domain.Sort;
+import ru.nskopt.exceptions.InvalidCursorException;
+
+/**
+ * Position in the product listing: the sort key and ID of the last product of a page. Clients get
+ * it as an opaque string and pass it back unchanged for the next page. The sort and direction are
+ * part of it, so a cursor cannot be reused with another order.
+ *
+ * @param value sort key of the product, {@code null} when sorting by ID
+ */
+public record ProductCursor(ProductSort sort, Sort.Direction direction, long id, String value) {
+
+  private static final String SEPARATOR = ":";
+
+  public String encode() {
+    String position =
+        String.join(
+            SEPARATOR,
+            sort.name(),
+            direction.name(),
+            String.valueOf(id),
+            value != null ? value : "");
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static ProductCursor decode(String cursor, ProductSort sort, Sort.Direction direction) {
+    String[] parts;
+    try {
+      parts =
+          new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+              .split(SEPARATOR, 4);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidCursorException("malformed cursor");
+    }
+    if (parts.length != 4) throw new InvalidCursorException("malformed cursor");
+    if (!sort.name().equals(parts[0]) || !direction.name().equals(parts[1]))
+      throw new InvalidCursorException("cursor was issued for another sort order");
+
+    try {
+      return new ProductCursor(
+          sort, direction, Long.parseLong(parts[2]), sort == ProductSort.ID ? null : parts[3]);
+    } catch (NumberFormatException e) {
+      throw new InvalidCursorException("malformed cursor");
+    }
+  }
+}
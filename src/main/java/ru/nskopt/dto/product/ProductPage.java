@@ -0,0 +1,20 @@
+package ru.nskopt.dto.product;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductPage<T> {
+  @Schema(description = "Товары страницы")
+  private List<T> items;
+
+  @Schema(
+      description = "Курсор следующей страницы, null на последней странице",
+      example = "SUQ6QVNDOjQyOg")
+  private String nextCursor;
+}
@@ -0,0 +1,8 @@
+package ru.nskopt.dto.product;
+
+/** Fields the product listing can be sorted by, each followed by the ID to break ties. */
+public enum ProductSort {
+  ID,
+  NAME,
+  PRICE
+}
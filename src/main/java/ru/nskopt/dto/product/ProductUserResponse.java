@@ -1,9 +1,11 @@
 package ru.nskopt.dto.product;
 
 import java.math.BigDecimal;
+import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import ru.nskopt.dto.image.ImagePreview;
 
 @Data
 @NoArgsConstructor
@@ -13,6 +15,7 @@ public class ProductUserResponse {
   private String name;
   private String description;
   private Long[] imagesIds;
+  private List<ImagePreview> images;
 
   private BigDecimal price;
   private Long availability;
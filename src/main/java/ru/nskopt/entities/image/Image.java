@@ -2,18 +2,23 @@ package ru.nskopt.entities.image;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.CascadeType;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
-import jakarta.persistence.OneToOne;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
+import java.time.Instant;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.ToString;
+import org.hibernate.annotations.CreationTimestamp;
 
 @Entity
 @Table(name = "images")
@@ -22,17 +27,37 @@ import lombok.ToString;
 @NoArgsConstructor
 public class Image {
 
+  /** Sequence-generated in blocks, so batch uploads can use JDBC batch inserts. */
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "images_seq")
+  @SequenceGenerator(name = "images_seq", sequenceName = "images_seq", allocationSize = 50)
   @Getter
   private Long id;
 
+  /**
+   * Image data may be shared by several images uploaded from the same source, so it is never
+   * removed together with an image. Unreferenced data is released by {@code ImageService}.
+   */
   @JsonIgnore
   @ToString.Exclude
   @EqualsAndHashCode.Exclude
-  @OneToOne(fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+  @Getter
+  @Setter
+  @ManyToOne(
+      fetch = FetchType.LAZY,
+      cascade = {CascadeType.PERSIST, CascadeType.MERGE})
   @JoinColumn(name = "image_data_id")
-  private final ImageData imageData = new ImageData();
+  private ImageData imageData = new ImageData();
+
+  /**
+   * When the image was uploaded. Images uploaded before it was recorded are given the time of the
+   * migration that added it. Images attached to nothing are collected once older than a grace
+   * period.
+   */
+  @Getter
+  @CreationTimestamp
+  @Column(name = "created_at", updatable = false)
+  private Instant createdAt;
 
   public byte[] getData() {
     return imageData.getData();
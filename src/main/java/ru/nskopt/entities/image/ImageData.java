@@ -1,27 +1,90 @@
 package ru.nskopt.entities.image;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Lob;
-import jakarta.persistence.OneToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import ru.nskopt.utils.HashUtils;
 
 @Entity
-@Table(name = "images_data")
+@Table(
+    name = "images_data",
+    indexes = {
+      @Index(name = "idx_images_data_source_key", columnList = "source_key"),
+      @Index(name = "idx_images_data_status", columnList = "status")
+    })
 @Data
 @NoArgsConstructor
 public class ImageData {
 
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "images_data_seq")
+  @SequenceGenerator(
+      name = "images_data_seq",
+      sequenceName = "images_data_seq",
+      allocationSize = 50)
   private Long id;
 
   @Lob private byte[] data;
 
-  @OneToOne(mappedBy = "imageData")
-  private Image image;
+  /** Size of {@link #data} in bytes, wherever it is stored. */
+  @Column(name = "data_size")
+  private Integer dataSize;
+
+  /** Dimensions of {@link #data}, unknown until the image has been processed. */
+  private Integer width;
+
+  private Integer height;
+
+  /** Data URI of a tiny blurred preview, shown by clients until the image itself loads. */
+  @Column(name = "placeholder", length = 1024)
+  private String placeholder;
+
+  /** Uploaded bytes, kept so the image can be encoded again with different settings. */
+  @Lob private byte[] original;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "status", length = 16)
+  private ImageStatus status = ImageStatus.READY;
+
+  /**
+   * Storage holding the bytes of this row. {@link #data} and {@link #original} are only filled in
+   * for the database storage.
+   */
+  @Enumerated(EnumType.STRING)
+  @Column(name = "storage", length = 16)
+  private ImageStorageType storage = ImageStorageType.DATABASE;
+
+  /** SHA-256 of {@link #data}, used as a strong ETag. Kept in sync by {@link #setData}. */
+  @Setter(AccessLevel.NONE)
+  @Column(length = 64)
+  private String contentHash;
+
+  /**
+   * Hash of the uploaded source bytes and of the compression settings they were encoded with. A
+   * repeated upload with the same key reuses this row instead of being compressed again.
+   */
+  @Column(name = "source_key", length = 64)
+  private String sourceKey;
+
+  /** Hash of the compression settings {@link #data} was encoded with, see {@code settingsKey}. */
+  @Column(name = "settings_key", length = 64)
+  private String settingsKey;
+
+  public void setData(byte[] data) {
+    this.data = data;
+    this.contentHash = data == null ? null : HashUtils.sha256(data);
+    this.dataSize = data == null ? null : data.length;
+  }
 }
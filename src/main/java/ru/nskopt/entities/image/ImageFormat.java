@@ -0,0 +1,39 @@
+package ru.nskopt.entities.image;
+
+import java.util.Arrays;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** Encodings an image can be stored and served in. */
+@Getter
+@RequiredArgsConstructor
+public enum ImageFormat {
+  WEBP("webp", "image/webp", false),
+  AVIF("avif", "image/avif", false),
+  JPEG("jpeg", "image/jpeg", true);
+
+  /** Encoding kept in {@code images_data.data} and resized on demand; every image has it. */
+  public static final ImageFormat PRIMARY = WEBP;
+
+  /** ImageIO format name, also used as the file extension of stored variants. */
+  private final String formatName;
+
+  private final String mediaType;
+
+  /**
+   * Whether any client can decode it, so that wildcards in {@code Accept} count. Newer formats
+   * must be listed explicitly: old clients send {@code image/*} without supporting them.
+   */
+  private final boolean universal;
+
+  public boolean hasAlpha() {
+    return this != JPEG;
+  }
+
+  public static ImageFormat fromFormatName(String formatName) {
+    return Arrays.stream(values())
+        .filter(format -> format.formatName.equals(formatName))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("Unknown image format " + formatName));
+  }
+}
@@ -0,0 +1,63 @@
+package ru.nskopt.entities.image;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.Lob;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+/**
+ * A downscaled encoding of {@link ImageData}, served when a client asks for a smaller image, or
+ * the full image in a format other than {@link ImageFormat#PRIMARY}.
+ */
+@Entity
+@Table(
+    name = "images_renditions",
+    uniqueConstraints = @UniqueConstraint(columnNames = {"image_data_id", "name", "format"}))
+@Getter
+@Setter
+@NoArgsConstructor
+public class ImageRendition {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @ManyToOne(fetch = FetchType.LAZY, optional = false)
+  @JoinColumn(name = "image_data_id")
+  @OnDelete(action = OnDeleteAction.CASCADE)
+  private ImageData imageData;
+
+  @Column(name = "name", length = 32)
+  private String name;
+
+  private int width;
+
+  private int height;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "format", length = 16)
+  private ImageFormat format = ImageFormat.PRIMARY;
+
+  @Column(name = "data_size")
+  private Integer dataSize;
+
+  /** Bytes of the rendition when its image data is kept in the database storage. */
+  @Lob private byte[] data;
+
+  @Column(length = 64)
+  private String contentHash;
+}
@@ -0,0 +1,7 @@
+package ru.nskopt.entities.image;
+
+public enum ImageStatus {
+  PROCESSING,
+  READY,
+  FAILED
+}
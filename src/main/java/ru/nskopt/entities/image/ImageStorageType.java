@@ -0,0 +1,6 @@
+package ru.nskopt.entities.image;
+
+public enum ImageStorageType {
+  DATABASE,
+  FILESYSTEM
+}
@@ -0,0 +1,15 @@
+package ru.nskopt.events;
+
+import java.util.Collection;
+
+/**
+ * Catalog data written by the services.
+ *
+ * @param productIds products whose own data changed, which also reorders product pages
+ * @param categoryIds categories whose own data changed
+ * @param categoryProductsIds categories whose list of products changed
+ */
+public record CatalogChangedEvent(
+    Collection<Long> productIds,
+    Collection<Long> categoryIds,
+    Collection<Long> categoryProductsIds) {}
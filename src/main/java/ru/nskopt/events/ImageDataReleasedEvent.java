@@ -0,0 +1,5 @@
+package ru.nskopt.events;
+
+import java.util.List;
+
+public record ImageDataReleasedEvent(List<Long> imageDataIds, List<String> contentHashes) {}
@@ -0,0 +1,3 @@
+package ru.nskopt.events;
+
+public record ImageProcessedEvent(Long imageDataId) {}
@@ -0,0 +1,3 @@
+package ru.nskopt.events;
+
+public record ImageUploadedEvent(Long imageDataId) {}
@@ -0,0 +1,14 @@
+package ru.nskopt.exceptions;
+
+import java.time.Duration;
+import lombok.Getter;
+
+@Getter
+public class ImageAdmissionException extends RuntimeException {
+  private final Duration retryAfter;
+
+  public ImageAdmissionException(String message, Duration retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+}
@@ -0,0 +1,7 @@
+package ru.nskopt.exceptions;
+
+public class ImageProcessingException extends RuntimeException {
+  public ImageProcessingException(String message) {
+    super(message);
+  }
+}
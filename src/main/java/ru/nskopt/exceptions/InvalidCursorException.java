@@ -0,0 +1,7 @@
+package ru.nskopt.exceptions;
+
+public class InvalidCursorException extends RuntimeException {
+  public InvalidCursorException(String message) {
+    super(message);
+  }
+}
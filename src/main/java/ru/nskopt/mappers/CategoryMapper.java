@@ -1,10 +1,13 @@
 package ru.nskopt.mappers;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.mapstruct.*;
 import ru.nskopt.dto.category.CategoryAdminResponse;
 import ru.nskopt.dto.category.CategoryUpdateRequest;
 import ru.nskopt.dto.category.CategoryUserResponse;
+import ru.nskopt.dto.image.ImagePreview;
 import ru.nskopt.entities.Category;
 import ru.nskopt.entities.image.Image;
 
@@ -16,7 +19,7 @@ public interface CategoryMapper {
   Category toCategory(CategoryUpdateRequest request);
 
   @Mapping(target = "imagesIds", source = "images")
-  CategoryUserResponse toUserResponse(Category category);
+  CategoryUserResponse toUserResponse(Category category, @Context Map<Long, ImagePreview> previews);
 
   @Mapping(target = "imagesIds", source = "images")
   CategoryAdminResponse toAdminResponse(Category category);
@@ -26,4 +29,14 @@ public interface CategoryMapper {
   default Long[] mapImages(Set<Image> images) {
     return images.stream().map(Image::getId).toArray(Long[]::new);
   }
+
+  default List<ImagePreview> mapPreviews(
+      Set<Image> images, @Context Map<Long, ImagePreview> previews) {
+    return images.stream()
+        .map(
+            image ->
+                previews.getOrDefault(
+                    image.getId(), new ImagePreview(image.getId(), null, null, null)))
+        .toList();
+  }
 }
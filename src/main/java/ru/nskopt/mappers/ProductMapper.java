@@ -1,7 +1,10 @@
 package ru.nskopt.mappers;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.mapstruct.*;
+import ru.nskopt.dto.image.ImagePreview;
 import ru.nskopt.dto.product.ProductAdminResponse;
 import ru.nskopt.dto.product.ProductUpdateRequest;
 import ru.nskopt.dto.product.ProductUserResponse;
@@ -16,7 +19,7 @@ public interface ProductMapper {
 
   @Mapping(target = "price", source = "cost.retailPrice")
   @Mapping(target = "imagesIds", source = "images")
-  ProductUserResponse toUserResponse(Product product);
+  ProductUserResponse toUserResponse(Product product, @Context Map<Long, ImagePreview> previews);
 
   @Mapping(target = "imagesIds", source = "images")
   ProductAdminResponse toAdminResponse(Product product);
@@ -26,4 +29,14 @@ public interface ProductMapper {
   default Long[] mapImages(Set<Image> images) {
     return images.stream().map(Image::getId).toArray(Long[]::new);
   }
+
+  default List<ImagePreview> mapPreviews(
+      Set<Image> images, @Context Map<Long, ImagePreview> previews) {
+    return images.stream()
+        .map(
+            image ->
+                previews.getOrDefault(
+                    image.getId(), new ImagePreview(image.getId(), null, null, null)))
+        .toList();
+  }
 }
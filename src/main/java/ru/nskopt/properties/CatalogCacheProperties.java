@@ -0,0 +1,34 @@
+package ru.nskopt.properties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "app.catalog.cache")
+@Data
+public class CatalogCacheProperties {
+  /** Serve catalog reads from memory; when off, every read goes to the database. */
+  private boolean enabled = true;
+
+  /** Entries held by each cache, unless overridden in {@link #caches}. */
+  private long maxSize = 10_000;
+
+  /**
+   * How long an entry is served after it was loaded. Writes through the services invalidate their
+   * entries at once; this only bounds staleness after changes made around them.
+   */
+  private Duration ttl = Duration.ofMinutes(10);
+
+  /** Limits of single caches by name, such as {@code product-pages}. */
+  private Map<String, Limits> caches = new LinkedHashMap<>();
+
+  @Data
+  public static class Limits {
+    private Long maxSize;
+    private Duration ttl;
+  }
+}
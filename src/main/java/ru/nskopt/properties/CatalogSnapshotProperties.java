@@ -0,0 +1,16 @@
+package ru.nskopt.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "app.catalog.snapshot")
+@Data
+public class CatalogSnapshotProperties {
+  /**
+   * Serve public catalog reads from an in-memory snapshot of the whole catalog, loaded on startup
+   * and updated on every write. Admin reads still go through the cache.
+   */
+  private boolean enabled = false;
+}
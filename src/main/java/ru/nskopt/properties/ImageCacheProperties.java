@@ -0,0 +1,17 @@
+package ru.nskopt.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Component
+@ConfigurationProperties(prefix = "app.image.memory-cache")
+@Data
+public class ImageCacheProperties {
+  /** Total size of the image bytes held in memory. */
+  private DataSize maxSize = DataSize.ofMegabytes(64);
+
+  /** Images larger than this are streamed from storage and never cached. */
+  private DataSize maxEntrySize = DataSize.ofMegabytes(2);
+}
@@ -1,12 +1,43 @@
 package ru.nskopt.properties;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import ru.nskopt.entities.image.ImageFormat;
 
 @Component
 @ConfigurationProperties(prefix = "app.image")
 @Data
 public class ImageCompressionProperties {
   private double quality;
+
+  /** Side length in pixels of the full-size image. */
+  private int size = 1000;
+
+  /** Smaller renditions generated from the same decode, by name and side length in pixels. */
+  private Map<String, Integer> renditions =
+      new LinkedHashMap<>(Map.of("thumb", 200, "medium", 500));
+
+  /**
+   * Formats every image is encoded in, most preferred first. {@link ImageFormat#PRIMARY} is always
+   * encoded; formats without an ImageIO writer on the classpath are skipped.
+   */
+  private List<ImageFormat> formats = new ArrayList<>(List.of(ImageFormat.WEBP, ImageFormat.JPEG));
+
+  /** Side length in pixels of the blurred placeholder embedded in catalog responses. */
+  private int placeholderSize = 16;
+
+  private FormatPolicy formatPolicy = FormatPolicy.SMALLEST;
+
+  /** How the format to serve is chosen among those the client accepts. */
+  public enum FormatPolicy {
+    /** The encoding with the fewest bytes. */
+    SMALLEST,
+    /** The first format in {@link #formats} order. */
+    PREFERENCE
+  }
 }
@@ -0,0 +1,35 @@
+package ru.nskopt.properties;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Component
+@ConfigurationProperties(prefix = "app.image.processing")
+@Data
+public class ImageProcessingProperties {
+  /** Number of compression workers, defaults to the number of available cores. */
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /** Uploads waiting for a worker beyond this are left to the retry sweep. */
+  private int queueCapacity = 100;
+
+  /**
+   * How often images stuck in processing (rejected or interrupted by a restart) are resubmitted.
+   */
+  private Duration retryDelay = Duration.ofMinutes(1);
+
+  /** Sources with more pixels are rejected as likely decompression bombs. */
+  private long maxPixels = 200_000_000;
+
+  /**
+   * Heap that uploads admitted but not yet compressed may take once decoded. Uploads that do not
+   * fit are rejected with 429.
+   */
+  private DataSize decodeBudget = DataSize.ofMegabytes(512);
+
+  /** Retry-After sent with uploads rejected because the decode budget is used up. */
+  private Duration admissionRetryAfter = Duration.ofSeconds(5);
+}
@@ -0,0 +1,27 @@
+package ru.nskopt.properties;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "app.image.reencode")
+@Data
+public class ImageReencodeProperties {
+  /** Re-encode images stored with older compression settings in the background. */
+  private boolean enabled = false;
+
+  /** Share of the available cores the re-encode workers may keep busy. */
+  private double cpuShare = 0.25;
+
+  /** Images picked up per run. */
+  private int batchSize = 20;
+
+  /** Pause between runs. */
+  private Duration interval = Duration.ofSeconds(30);
+
+  public int getThreads() {
+    return Math.max(1, (int) (Runtime.getRuntime().availableProcessors() * cpuShare));
+  }
+}
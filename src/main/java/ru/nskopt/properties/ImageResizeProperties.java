@@ -0,0 +1,23 @@
+package ru.nskopt.properties;
+
+import java.nio.file.Path;
+import java.util.List;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Component
+@ConfigurationProperties(prefix = "app.image.resize")
+@Data
+public class ImageResizeProperties {
+  /** Requested dimensions are rounded up to one of these, so the cache stays small. */
+  private List<Integer> sizes = List.of(100, 200, 300, 400, 500, 600, 800, 1000);
+
+  /** Quality used when the client sends {@code Save-Data: on} and no explicit quality. */
+  private double saveDataQuality = 0.5;
+
+  private Path cacheDirectory = Path.of(System.getProperty("java.io.tmpdir"), "image-cache");
+
+  private DataSize cacheMaxSize = DataSize.ofMegabytes(512);
+}
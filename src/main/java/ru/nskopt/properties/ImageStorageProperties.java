@@ -0,0 +1,32 @@
+package ru.nskopt.properties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import ru.nskopt.entities.image.ImageStorageType;
+
+@Component
+@ConfigurationProperties(prefix = "app.image.storage")
+@Data
+public class ImageStorageProperties {
+  /** Storage new uploads are written to. Existing images are read from wherever they are. */
+  private ImageStorageType type = ImageStorageType.DATABASE;
+
+  private Path directory = Path.of("/var/lib/images");
+
+  /**
+   * Number of image IDs the storage migration looks up at a time. Each image is still moved in its
+   * own transaction.
+   */
+  private int migrationBatchSize = 50;
+
+  /** Unlink PostgreSQL large objects that no row references any more. */
+  private boolean largeObjectCleanupEnabled = true;
+
+  /** Large objects unlinked per transaction. */
+  private int largeObjectCleanupBatchSize = 100;
+
+  private Duration largeObjectCleanupInterval = Duration.ofHours(1);
+}
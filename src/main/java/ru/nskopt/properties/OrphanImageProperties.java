@@ -0,0 +1,23 @@
+package ru.nskopt.properties;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "app.image.orphans")
+@Data
+public class OrphanImageProperties {
+  /** Delete images attached to no product or category. */
+  private boolean enabled = false;
+
+  /** Age an image must reach before it is collected, so a fresh upload can still be attached. */
+  private Duration gracePeriod = Duration.ofDays(7);
+
+  /** Images deleted per transaction. */
+  private int batchSize = 500;
+
+  /** Pause between collections. */
+  private Duration interval = Duration.ofHours(1);
+}
@@ -0,0 +1,203 @@
+package ru.nskopt.repositories;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.nskopt.dto.category.CategoryUserResponse;
+import ru.nskopt.dto.image.ImagePreview;
+import ru.nskopt.dto.product.ProductUserResponse;
+
+/**
+ * Catalog responses for users, selected column by column straight into DTOs. Image IDs and
+ * previews are aggregated into arrays by PostgreSQL, so a response takes a single query and no
+ * entity is hydrated, snapshotted for dirty checking or proxied.
+ */
+@Repository
+@RequiredArgsConstructor
+public class CatalogReadRepository {
+
+  /** Images of the row and their previews, aggregated in the same order. */
+  private static final String IMAGES =
+      """
+      array_agg(i.id ORDER BY i.id) FILTER (WHERE i.id IS NOT NULL) AS image_ids,
+      array_agg(d.width ORDER BY i.id) FILTER (WHERE i.id IS NOT NULL) AS image_widths,
+      array_agg(d.height ORDER BY i.id) FILTER (WHERE i.id IS NOT NULL) AS image_heights,
+      array_agg(d.placeholder ORDER BY i.id) FILTER (WHERE i.id IS NOT NULL)
+          AS image_placeholders
+      """;
+
+  private static final String PRODUCTS =
+      "SELECT p.id, p.name, p.description, p.retail_price, p.availability, "
+          + IMAGES
+          + "FROM products p "
+          + "LEFT JOIN images i ON i.pro_images_ids = p.id "
+          + "LEFT JOIN images_data d ON d.id = i.image_data_id ";
+
+  private static final String CATEGORIES =
+      "SELECT c.id, c.name, "
+          + IMAGES
+          + "FROM categories c "
+          + "LEFT JOIN images i ON i.cat_images_id = c.id "
+          + "LEFT JOIN images_data d ON d.id = i.image_data_id ";
+
+  private static final String CATEGORY_PRODUCTS =
+      "SELECT category_id, product_id FROM product_category ";
+
+  private static final RowMapper<long[]> PAIR_MAPPER =
+      (rs, rowNum) -> new long[] {rs.getLong(1), rs.getLong(2)};
+
+  private static final RowMapper<ProductUserResponse> PRODUCT_MAPPER =
+      (rs, rowNum) -> {
+        Long[] imageIds = imageIds(rs);
+        return new ProductUserResponse(
+            rs.getLong("id"),
+            rs.getString("name"),
+            rs.getString("description"),
+            imageIds,
+            previews(rs, imageIds),
+            rs.getBigDecimal("retail_price"),
+            rs.getLong("availability"));
+      };
+
+  private static final RowMapper<CategoryUserResponse> CATEGORY_MAPPER =
+      (rs, rowNum) -> {
+        Long[] imageIds = imageIds(rs);
+        return new CategoryUserResponse(
+            rs.getLong("id"), rs.getString("name"), imageIds, previews(rs, imageIds));
+      };
+
+  private final NamedParameterJdbcTemplate jdbcTemplate;
+
+  /** The whole catalog, in no particular order. */
+  public List<ProductUserResponse> findProducts() {
+    return jdbcTemplate.query(PRODUCTS + "GROUP BY p.id", PRODUCT_MAPPER);
+  }
+
+  /** Products with the given IDs, in no particular order. */
+  public List<ProductUserResponse> findProductsByIds(Collection<Long> ids) {
+    if (ids.isEmpty()) return List.of();
+
+    return jdbcTemplate.query(
+        PRODUCTS + "WHERE p.id IN (:ids) GROUP BY p.id", Map.of("ids", ids), PRODUCT_MAPPER);
+  }
+
+  public Optional<ProductUserResponse> findProductById(Long id) {
+    return jdbcTemplate
+        .query(PRODUCTS + "WHERE p.id = :id GROUP BY p.id", Map.of("id", id), PRODUCT_MAPPER)
+        .stream()
+        .findFirst();
+  }
+
+  public List<ProductUserResponse> findProductsByCategoryId(Long categoryId) {
+    return jdbcTemplate.query(
+        PRODUCTS
+            + "JOIN product_category pc ON pc.product_id = p.id "
+            + "WHERE pc.category_id = :categoryId GROUP BY p.id ORDER BY p.id",
+        Map.of("categoryId", categoryId),
+        PRODUCT_MAPPER);
+  }
+
+  public List<CategoryUserResponse> findCategories() {
+    return jdbcTemplate.query(CATEGORIES + "GROUP BY c.id ORDER BY c.id", CATEGORY_MAPPER);
+  }
+
+  /** Categories with the given IDs, in no particular order. */
+  public List<CategoryUserResponse> findCategoriesByIds(Collection<Long> ids) {
+    if (ids.isEmpty()) return List.of();
+
+    return jdbcTemplate.query(
+        CATEGORIES + "WHERE c.id IN (:ids) GROUP BY c.id", Map.of("ids", ids), CATEGORY_MAPPER);
+  }
+
+  public Optional<CategoryUserResponse> findCategoryById(Long id) {
+    return jdbcTemplate
+        .query(CATEGORIES + "WHERE c.id = :id GROUP BY c.id", Map.of("id", id), CATEGORY_MAPPER)
+        .stream()
+        .findFirst();
+  }
+
+  /** IDs of the products of every category, by category ID, in ID order. */
+  public Map<Long, List<Long>> findProductIdsByCategory() {
+    return productIdsByCategory(
+        jdbcTemplate.query(CATEGORY_PRODUCTS + "ORDER BY category_id, product_id", PAIR_MAPPER));
+  }
+
+  /**
+   * IDs of the products of the given categories, by category ID, in ID order. Categories without
+   * products are missing from the result.
+   */
+  public Map<Long, List<Long>> findProductIdsByCategoryIds(Collection<Long> categoryIds) {
+    if (categoryIds.isEmpty()) return Map.of();
+
+    return productIdsByCategory(
+        jdbcTemplate.query(
+            CATEGORY_PRODUCTS
+                + "WHERE category_id IN (:ids) ORDER BY category_id, product_id",
+            Map.of("ids", categoryIds),
+            PAIR_MAPPER));
+  }
+
+  /** Products with an image of the given data among their images. */
+  public List<Long> findProductIdsByImageDataId(Long imageDataId) {
+    return jdbcTemplate.queryForList(
+        "SELECT DISTINCT pro_images_ids FROM images "
+            + "WHERE image_data_id = :id AND pro_images_ids IS NOT NULL",
+        Map.of("id", imageDataId),
+        Long.class);
+  }
+
+  /** Categories with an image of the given data among their images. */
+  public List<Long> findCategoryIdsByImageDataId(Long imageDataId) {
+    return jdbcTemplate.queryForList(
+        "SELECT DISTINCT cat_images_id FROM images "
+            + "WHERE image_data_id = :id AND cat_images_id IS NOT NULL",
+        Map.of("id", imageDataId),
+        Long.class);
+  }
+
+  private static Map<Long, List<Long>> productIdsByCategory(List<long[]> pairs) {
+    Map<Long, List<Long>> productIds = new HashMap<>();
+    for (long[] pair : pairs)
+      productIds.computeIfAbsent(pair[0], id -> new ArrayList<>()).add(pair[1]);
+    return productIds;
+  }
+
+  private static Long[] imageIds(ResultSet rs) throws SQLException {
+    Long[] ids = array(rs, "image_ids", Long[].class);
+    return ids != null ? ids : new Long[0];
+  }
+
+  private static List<ImagePreview> previews(ResultSet rs, Long[] imageIds) throws SQLException {
+    if (imageIds.length == 0) return List.of();
+
+    Integer[] widths = array(rs, "image_widths", Integer[].class);
+    Integer[] heights = array(rs, "image_heights", Integer[].class);
+    String[] placeholders = array(rs, "image_placeholders", String[].class);
+
+    List<ImagePreview> previews = new ArrayList<>(imageIds.length);
+    for (int i = 0; i < imageIds.length; i++)
+      previews.add(new ImagePreview(imageIds[i], widths[i], heights[i], placeholders[i]));
+    return previews;
+  }
+
+  private static <T> T array(ResultSet rs, String column, Class<T> type) throws SQLException {
+    Array array = rs.getArray(column);
+    if (array == null) return null;
+
+    try {
+      return type.cast(array.getArray());
+    } finally {
+      array.free();
+    }
+  }
+}
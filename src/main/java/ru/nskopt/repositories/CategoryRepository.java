@@ -1,8 +1,19 @@
 package ru.nskopt.repositories;
 
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import ru.nskopt.entities.Category;
 
 @Repository
-public interface CategoryRepository extends JpaRepository<Category, Long> {}
+public interface CategoryRepository extends JpaRepository<Category, Long> {
+  @EntityGraph(attributePaths = "images")
+  @Query("SELECT c FROM Category c")
+  List<Category> findAllWithImages();
+
+  @EntityGraph(attributePaths = "images")
+  Optional<Category> findWithImagesById(Long id);
+}
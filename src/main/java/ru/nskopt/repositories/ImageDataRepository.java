@@ -0,0 +1,131 @@
+package ru.nskopt.repositories;
+
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.nskopt.entities.image.ImageData;
+import ru.nskopt.entities.image.ImageStatus;
+import ru.nskopt.entities.image.ImageStorageType;
+
+@Repository
+public interface ImageDataRepository extends JpaRepository<ImageData, Long> {
+  interface SourceKeyId {
+    String getSourceKey();
+
+    Long getId();
+  }
+
+  /** Earliest usable image data for each of the source keys that has been uploaded before. */
+  @Query(
+      "SELECT d.sourceKey AS sourceKey, MIN(d.id) AS id FROM ImageData d "
+          + "WHERE d.sourceKey IN :sourceKeys "
+          + "AND d.status <> ru.nskopt.entities.image.ImageStatus.FAILED "
+          + "GROUP BY d.sourceKey")
+  List<SourceKeyId> findIdsBySourceKeys(Collection<String> sourceKeys);
+
+  @Query("SELECT d.id FROM ImageData d WHERE d.status = :status ORDER BY d.id")
+  List<Long> findIdsByStatus(ImageStatus status, Limit limit);
+
+  @Query("SELECT d.storage FROM ImageData d WHERE d.id = :id")
+  ImageStorageType findStorageById(Long id);
+
+  /** Rows stored in the database that are not being processed, for the storage migration. */
+  @Query(
+      "SELECT d.id FROM ImageData d "
+          + "WHERE (d.storage IS NULL "
+          + "OR d.storage = ru.nskopt.entities.image.ImageStorageType.DATABASE) "
+          + "AND (d.status IS NULL "
+          + "OR d.status <> ru.nskopt.entities.image.ImageStatus.PROCESSING) "
+          + "AND d.id > :afterId "
+          + "ORDER BY d.id")
+  List<Long> findIdsStoredInDatabase(Long afterId, Limit limit);
+
+  @Query("SELECT d.dataSize FROM ImageData d WHERE d.id = :id")
+  Integer findDataSizeById(Long id);
+
+  @Query("SELECT d.id FROM ImageData d WHERE d.id IN :ids")
+  List<Long> findExistingIds(Collection<Long> ids);
+
+  @Modifying
+  @Query(
+      "UPDATE ImageData d SET d.contentHash = :contentHash, d.dataSize = :dataSize, "
+          + "d.width = :width, d.height = :height, d.placeholder = :placeholder, "
+          + "d.settingsKey = :settingsKey, "
+          + "d.status = ru.nskopt.entities.image.ImageStatus.READY WHERE d.id = :id")
+  int completeProcessing(
+      Long id,
+      String contentHash,
+      int dataSize,
+      int width,
+      int height,
+      String placeholder,
+      String settingsKey);
+
+  /** Ready rows encoded with settings other than {@code settingsKey}, for re-encoding. */
+  @Query(
+      "SELECT d.id FROM ImageData d "
+          + "WHERE d.status = ru.nskopt.entities.image.ImageStatus.READY "
+          + "AND (d.settingsKey IS NULL OR d.settingsKey <> :settingsKey) "
+          + "AND d.id > :afterId "
+          + "ORDER BY d.id")
+  List<Long> findIdsEncodedWithOtherSettings(String settingsKey, Long afterId, Limit limit);
+
+  @Transactional
+  @Modifying
+  @Query("UPDATE ImageData d SET d.settingsKey = :settingsKey WHERE d.id = :id")
+  int updateSettingsKey(Long id, String settingsKey);
+
+  @Transactional
+  @Modifying
+  @Query("UPDATE ImageData d SET d.status = :status WHERE d.id = :id")
+  int updateStatus(Long id, ImageStatus status);
+
+  @Modifying
+  @Query("UPDATE ImageData d SET d.data = :data WHERE d.id = :id")
+  int updateData(Long id, byte[] data);
+
+  @Modifying
+  @Query("UPDATE ImageData d SET d.original = :original WHERE d.id = :id")
+  int updateOriginal(Long id, byte[] original);
+
+  /** Points the row at another storage and drops the bytes kept in the database. */
+  @Modifying
+  @Query(
+      "UPDATE ImageData d SET d.storage = :storage, d.data = NULL, d.original = NULL "
+          + "WHERE d.id = :id")
+  int moveToStorage(Long id, ImageStorageType storage);
+
+  /** Those of the given rows that no image references. */
+  @Query(
+      value =
+          "SELECT d.id FROM images_data d "
+              + "WHERE d.id IN (:ids) "
+              + "AND NOT EXISTS (SELECT 1 FROM images i WHERE i.image_data_id = d.id)",
+      nativeQuery = true)
+  List<Long> findUnreferencedIds(Collection<Long> ids);
+
+  @Query(
+      value =
+          "SELECT d.content_hash FROM images_data d "
+              + "WHERE d.id IN (:ids) AND d.content_hash IS NOT NULL "
+              + "UNION ALL "
+              + "SELECT r.content_hash FROM images_renditions r "
+              + "WHERE r.image_data_id IN (:ids) AND r.content_hash IS NOT NULL",
+      nativeQuery = true)
+  List<String> findContentHashes(Collection<Long> ids);
+
+  /** Deletes those of the given rows that are still unreferenced. */
+  @Modifying(flushAutomatically = true)
+  @Query(
+      value =
+          "DELETE FROM images_data d "
+              + "WHERE d.id IN (:ids) "
+              + "AND NOT EXISTS (SELECT 1 FROM images i WHERE i.image_data_id = d.id)",
+      nativeQuery = true)
+  int deleteUnreferenced(Collection<Long> ids);
+}
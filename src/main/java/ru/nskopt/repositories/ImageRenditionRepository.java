@@ -0,0 +1,49 @@
+package ru.nskopt.repositories;
+
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import ru.nskopt.dto.image.ImageRenditionMetadata;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.entities.image.ImageRendition;
+
+@Repository
+public interface ImageRenditionRepository extends JpaRepository<ImageRendition, Long> {
+  @Query(
+      "SELECT new ru.nskopt.dto.image.ImageRenditionMetadata("
+          + "r.id, r.imageData.id, r.name, r.width, r.contentHash, r.format, r.dataSize) "
+          + "FROM Image i JOIN ImageRendition r ON r.imageData = i.imageData "
+          + "WHERE i.id = :imageId "
+          + "ORDER BY r.width")
+  List<ImageRenditionMetadata> findMetadataByImageId(Long imageId);
+
+  @Query(
+      "SELECT new ru.nskopt.dto.image.ImageRenditionMetadata("
+          + "r.id, r.imageData.id, r.name, r.width, r.contentHash, r.format, r.dataSize) "
+          + "FROM ImageRendition r WHERE r.imageData.id = :imageDataId")
+  List<ImageRenditionMetadata> findMetadataByImageDataId(Long imageDataId);
+
+  @Query(
+      "SELECT new ru.nskopt.dto.image.ImageRenditionMetadata("
+          + "r.id, r.imageData.id, r.name, r.width, r.contentHash, r.format, r.dataSize) "
+          + "FROM ImageRendition r WHERE r.imageData.id IN :imageDataIds "
+          + "ORDER BY r.width")
+  List<ImageRenditionMetadata> findMetadataByImageDataIds(Collection<Long> imageDataIds);
+
+  @Modifying
+  @Query("DELETE FROM ImageRendition r WHERE r.imageData.id = :imageDataId")
+  int deleteByImageDataId(Long imageDataId);
+
+  @Modifying
+  @Query(
+      "UPDATE ImageRendition r SET r.data = :data "
+          + "WHERE r.imageData.id = :imageDataId AND r.name = :name AND r.format = :format")
+  int updateData(Long imageDataId, String name, ImageFormat format, byte[] data);
+
+  @Modifying
+  @Query("UPDATE ImageRendition r SET r.data = NULL WHERE r.imageData.id = :imageDataId")
+  int clearData(Long imageDataId);
+}
@@ -1,8 +1,89 @@
 package ru.nskopt.repositories;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import ru.nskopt.dto.image.ImageMetadata;
+import ru.nskopt.dto.image.ImagePreview;
 import ru.nskopt.entities.image.Image;
 
 @Repository
-public interface ImageRepository extends JpaRepository<Image, Long> {}
+public interface ImageRepository extends JpaRepository<Image, Long>, OrphanImageRepository {
+  /** Condition on {@code images i} for images attached to nothing and older than the grace. */
+  String ORPHAN =
+      "i.pro_images_ids IS NULL AND i.cat_images_id IS NULL AND i.created_at < :createdBefore";
+
+  @Query(
+      "SELECT new ru.nskopt.dto.image.ImageMetadata("
+          + "i.id, d.id, d.contentHash, d.status, d.width, d.storage, d.dataSize) "
+          + "FROM Image i LEFT JOIN i.imageData d "
+          + "WHERE i.id = :id")
+  Optional<ImageMetadata> findMetadataById(Long id);
+
+  @Query(
+      "SELECT new ru.nskopt.dto.image.ImageMetadata("
+          + "i.id, d.id, d.contentHash, d.status, d.width, d.storage, d.dataSize) "
+          + "FROM Image i LEFT JOIN i.imageData d "
+          + "WHERE i.id IN :ids")
+  List<ImageMetadata> findMetadataByIds(Collection<Long> ids);
+
+  @Query(
+      "SELECT new ru.nskopt.dto.image.ImagePreview(i.id, d.width, d.height, d.placeholder) "
+          + "FROM Image i LEFT JOIN i.imageData d "
+          + "WHERE i.id IN :ids")
+  List<ImagePreview> findPreviewsByIds(Collection<Long> ids);
+
+  /** Image data of the images of the products, to release once the images are removed. */
+  @Query(
+      value = "SELECT DISTINCT i.image_data_id FROM images i WHERE i.pro_images_ids IN :productIds",
+      nativeQuery = true)
+  List<Long> findImageDataIdsByProductIds(Collection<Long> productIds);
+
+  /** Image data of the images of the category, to release once the images are removed. */
+  @Query(
+      value = "SELECT DISTINCT i.image_data_id FROM images i WHERE i.cat_images_id = :categoryId",
+      nativeQuery = true)
+  List<Long> findImageDataIdsByCategoryId(Long categoryId);
+
+  interface OrphanCounts {
+    long getImages();
+
+    long getImageData();
+
+    long getBytes();
+  }
+
+  /**
+   * What {@link #deleteOrphans} would remove: images attached to no product or category and
+   * created before {@code createdBefore}, and the image data used only by them.
+   */
+  @Query(
+      value =
+          "SELECT "
+              + "(SELECT COUNT(*) FROM images i WHERE "
+              + ORPHAN
+              + ") AS images, "
+              + "COUNT(d.id) AS imageData, COALESCE(SUM(d.data_size), 0) AS bytes "
+              + "FROM images_data d "
+              + "WHERE EXISTS (SELECT 1 FROM images i WHERE i.image_data_id = d.id AND "
+              + ORPHAN
+              + ") AND NOT EXISTS (SELECT 1 FROM images i WHERE i.image_data_id = d.id AND NOT ("
+              + ORPHAN
+              + "))",
+      nativeQuery = true)
+  OrphanCounts countOrphans(Instant createdBefore);
+
+  /** Points every image using one image data row at another. */
+  @Modifying
+  @Query(
+      value =
+          "UPDATE images SET image_data_id = :newImageDataId "
+              + "WHERE image_data_id = :imageDataId",
+      nativeQuery = true)
+  int replaceImageData(Long imageDataId, Long newImageDataId);
+}
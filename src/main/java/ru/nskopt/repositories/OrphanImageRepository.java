@@ -0,0 +1,15 @@
+package ru.nskopt.repositories;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface OrphanImageRepository {
+  /**
+   * Deletes up to {@code limit} images attached to no product or category and created before
+   * {@code createdBefore}. The conditions are checked again on the rows being deleted, so an image
+   * attached in the meantime is kept.
+   *
+   * @return image data of each deleted image, for releasing what is no longer used
+   */
+  List<Long> deleteOrphans(Instant createdBefore, int limit);
+}
@@ -0,0 +1,35 @@
+package ru.nskopt.repositories;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Runs the {@code DELETE ... RETURNING} through JDBC: as a JPA query it would be executed as a
+ * select and bypass the persistence context. Callers must not hold the deleted images as entities
+ * in the same transaction.
+ */
+@RequiredArgsConstructor
+class OrphanImageRepositoryImpl implements OrphanImageRepository {
+
+  private static final String ORPHAN = ImageRepository.ORPHAN.replace(":createdBefore", "?");
+
+  private final JdbcTemplate jdbcTemplate;
+
+  @Override
+  public List<Long> deleteOrphans(Instant createdBefore, int limit) {
+    Timestamp before = Timestamp.from(createdBefore);
+    return jdbcTemplate.queryForList(
+        "DELETE FROM images i WHERE i.id IN (SELECT i.id FROM images i WHERE "
+            + ORPHAN
+            + " ORDER BY i.id LIMIT ?) AND "
+            + ORPHAN
+            + " RETURNING i.image_data_id",
+        Long.class,
+        before,
+        limit,
+        before);
+  }
+}
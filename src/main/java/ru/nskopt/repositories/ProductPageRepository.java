@@ -0,0 +1,15 @@
+package ru.nskopt.repositories;
+
+import java.util.List;
+import org.springframework.data.domain.Sort;
+import ru.nskopt.dto.product.ProductCursor;
+import ru.nskopt.dto.product.ProductSort;
+
+public interface ProductPageRepository {
+  /**
+   * Positions of up to {@code limit} products following {@code after} in the given order, or the
+   * first ones when {@code after} is {@code null}.
+   */
+  List<ProductCursor> findPositions(
+      ProductSort sort, Sort.Direction direction, ProductCursor after, int limit);
+}
@@ -0,0 +1,71 @@
+package ru.nskopt.repositories;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.nskopt.dto.product.ProductCursor;
+import ru.nskopt.dto.product.ProductSort;
+import ru.nskopt.exceptions.InvalidCursorException;
+
+/**
+ * Keyset pagination over the products. A page starts with a row comparison against the last
+ * position, so PostgreSQL seeks straight to it in the matching {@code (key, id)} index instead of
+ * skipping rows as OFFSET does, and deep pages cost the same as the first one. Missing names and
+ * prices sort as empty and zero, matching the expression indexes. Names are compared by code point
+ * under the {@code "C"} collation, whatever the database default, so the in-memory catalog pages
+ * them the same way.
+ */
+@RequiredArgsConstructor
+class ProductPageRepositoryImpl implements ProductPageRepository {
+
+  private final JdbcTemplate jdbcTemplate;
+
+  @Override
+  public List<ProductCursor> findPositions(
+      ProductSort sort, Sort.Direction direction, ProductCursor after, int limit) {
+    String key = sortKey(sort);
+    String order = direction.isAscending() ? "ASC" : "DESC";
+
+    StringBuilder sql = new StringBuilder("SELECT id, ").append(key).append(" FROM products");
+    List<Object> args = new ArrayList<>();
+    if (after != null) {
+      sql.append(" WHERE (").append(key).append(", id) ");
+      sql.append(direction.isAscending() ? ">" : "<").append(" (?, ?)");
+      args.add(keyValue(sort, after));
+      args.add(after.id());
+    }
+    sql.append(" ORDER BY ").append(key).append(' ').append(order);
+    sql.append(", id ").append(order).append(" LIMIT ?");
+    args.add(limit);
+
+    return jdbcTemplate.query(
+        sql.toString(),
+        (rs, rowNum) ->
+            new ProductCursor(
+                sort, direction, rs.getLong(1), sort == ProductSort.ID ? null : rs.getString(2)),
+        args.toArray());
+  }
+
+  private static String sortKey(ProductSort sort) {
+    return switch (sort) {
+      case ID -> "id";
+      case NAME -> "COALESCE(name, '') COLLATE \"C\"";
+      case PRICE -> "COALESCE(retail_price, 0)";
+    };
+  }
+
+  private static Object keyValue(ProductSort sort, ProductCursor cursor) {
+    try {
+      return switch (sort) {
+        case ID -> cursor.id();
+        case NAME -> cursor.value();
+        case PRICE -> new BigDecimal(cursor.value());
+      };
+    } catch (NumberFormatException e) {
+      throw new InvalidCursorException("malformed cursor");
+    }
+  }
+}
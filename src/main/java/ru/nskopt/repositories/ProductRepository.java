@@ -1,13 +1,31 @@
 package ru.nskopt.repositories;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import ru.nskopt.entities.Product;
 
+/**
+ * Admin reads fetch the images of the products in the same query, since every response lists
+ * their IDs; loading the lazy collection product by product would cost a query each. User reads
+ * go through {@link CatalogReadRepository}.
+ */
 @Repository
-public interface ProductRepository extends JpaRepository<Product, Long> {
-  @Query("SELECT p FROM Product p " + "JOIN p.categories c " + "WHERE c.id = :categoryId")
-  List<Product> findAllProductsIdByCategoryId(Long categoryId);
+public interface ProductRepository
+    extends JpaRepository<Product, Long>, ProductPageRepository {
+  @EntityGraph(attributePaths = "images")
+  List<Product> findWithImagesByIdIn(Collection<Long> ids);
+
+  @EntityGraph(attributePaths = "images")
+  Optional<Product> findWithImagesById(Long id);
+
+  @Query("SELECT DISTINCT c.id FROM Product p JOIN p.categories c WHERE p.id IN :ids")
+  List<Long> findCategoryIdsByIdIn(Collection<Long> ids);
+
+  @Query("SELECT p.id FROM Product p JOIN p.categories c WHERE c.id = :categoryId")
+  List<Long> findIdsByCategoryId(Long categoryId);
 }
@@ -0,0 +1,148 @@
+package ru.nskopt.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.nskopt.events.CatalogChangedEvent;
+import ru.nskopt.events.ImageProcessedEvent;
+import ru.nskopt.properties.CatalogCacheProperties;
+import ru.nskopt.repositories.CatalogReadRepository;
+import ru.nskopt.repositories.ProductRepository;
+
+/**
+ * Read-through cache of catalog responses, one Caffeine cache per kind of response. Entries are
+ * invalidated by the {@link CatalogChangedEvent} of every write once it commits, before the write
+ * returns. A load that read the old data and races past the invalidation is served until the TTL.
+ */
+@Service
+public class CatalogCache {
+
+  public enum Region {
+    PRODUCTS,
+    PRODUCTS_ADMIN,
+    PRODUCT_PAGES,
+    PRODUCT_PAGES_ADMIN,
+    CATEGORIES,
+    CATEGORIES_ADMIN,
+    CATEGORY_LIST,
+    CATEGORY_LIST_ADMIN,
+    CATEGORY_PRODUCTS;
+
+    public String cacheName() {
+      return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+  }
+
+  /** Key of the caches holding a single list. */
+  public static final String ALL = "all";
+
+  private final boolean enabled;
+  private final Map<Region, Cache<Object, Object>> caches = new EnumMap<>(Region.class);
+
+  private final CatalogReadRepository catalogReadRepository;
+  private final ProductRepository productRepository;
+
+  public CatalogCache(
+      CatalogCacheProperties catalogCacheProperties,
+      CatalogReadRepository catalogReadRepository,
+      ProductRepository productRepository,
+      MeterRegistry meterRegistry) {
+    this.enabled = catalogCacheProperties.isEnabled();
+    this.catalogReadRepository = catalogReadRepository;
+    this.productRepository = productRepository;
+
+    for (Region region : Region.values()) {
+      CatalogCacheProperties.Limits limits =
+          catalogCacheProperties.getCaches().get(region.cacheName());
+      long maxSize =
+          limits != null && limits.getMaxSize() != null
+              ? limits.getMaxSize()
+              : catalogCacheProperties.getMaxSize();
+      Duration ttl =
+          limits != null && limits.getTtl() != null
+              ? limits.getTtl()
+              : catalogCacheProperties.getTtl();
+
+      Cache<Object, Object> cache =
+          Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+      caches.put(region, cache);
+
+      String cacheName = "catalog." + region.cacheName();
+      CaffeineCacheMetrics.monitor(meterRegistry, cache, cacheName);
+      Gauge.builder("catalog.cache.hit.ratio", cache, c -> c.stats().hitRate())
+          .description("Share of catalog reads served from the cache")
+          .tag("cache", cacheName)
+          .register(meterRegistry);
+    }
+  }
+
+  /** Cached response for {@code key}, loaded and cached first if missing. */
+  @SuppressWarnings("unchecked")
+  public <T> T get(Region region, Object key, Supplier<T> loader) {
+    if (!enabled) return loader.get();
+
+    return (T) caches.get(region).get(key, k -> loader.get());
+  }
+
+  public void invalidateAll() {
+    caches.values().forEach(Cache::invalidateAll);
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onCatalogChanged(CatalogChangedEvent event) {
+    if (!event.productIds().isEmpty()) {
+      invalidate(Region.PRODUCTS, event.productIds());
+      invalidate(Region.PRODUCTS_ADMIN, event.productIds());
+      caches.get(Region.PRODUCT_PAGES).invalidateAll();
+      caches.get(Region.PRODUCT_PAGES_ADMIN).invalidateAll();
+    }
+
+    if (!event.categoryIds().isEmpty()) {
+      invalidate(Region.CATEGORIES, event.categoryIds());
+      invalidate(Region.CATEGORIES_ADMIN, event.categoryIds());
+      caches.get(Region.CATEGORY_LIST).invalidateAll();
+      caches.get(Region.CATEGORY_LIST_ADMIN).invalidateAll();
+    }
+
+    invalidate(Region.CATEGORY_PRODUCTS, event.categoryProductsIds());
+  }
+
+  /**
+   * Previews of the processed image may be cached with no dimensions or placeholder yet, in the
+   * user responses of the products and categories showing it. Uploads not attached to anything
+   * yet invalidate nothing.
+   */
+  @TransactionalEventListener
+  public void onImageProcessed(ImageProcessedEvent event) {
+    if (!enabled) return;
+
+    List<Long> productIds = catalogReadRepository.findProductIdsByImageDataId(event.imageDataId());
+    if (!productIds.isEmpty()) {
+      invalidate(Region.PRODUCTS, productIds);
+      caches.get(Region.PRODUCT_PAGES).invalidateAll();
+      invalidate(Region.CATEGORY_PRODUCTS, productRepository.findCategoryIdsByIdIn(productIds));
+    }
+
+    List<Long> categoryIds =
+        catalogReadRepository.findCategoryIdsByImageDataId(event.imageDataId());
+    if (!categoryIds.isEmpty()) {
+      invalidate(Region.CATEGORIES, categoryIds);
+      caches.get(Region.CATEGORY_LIST).invalidateAll();
+    }
+  }
+
+  private void invalidate(Region region, Collection<Long> ids) {
+    caches.get(region).invalidateAll(ids);
+  }
+}
@@ -0,0 +1,278 @@
+package ru.nskopt.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.springframework.data.domain.Sort;
+import ru.nskopt.dto.category.CategoryUserResponse;
+import ru.nskopt.dto.product.ProductCursor;
+import ru.nskopt.dto.product.ProductPage;
+import ru.nskopt.dto.product.ProductSort;
+import ru.nskopt.dto.product.ProductUserResponse;
+import ru.nskopt.exceptions.InvalidCursorException;
+
+/**
+ * The user catalog in memory, indexed for every public read: products and categories by ID, the
+ * products of each category, and the products in each sort order for keyset pages. A snapshot is
+ * never modified once built; a change builds a new one sharing the responses it did not touch, and
+ * moves only the changed products within the sorted lists. Responses are shared by every reader and
+ * must not be modified either.
+ *
+ * <p>Pages follow the order of the SQL listing: names are compared by code point, as under the
+ * {@code "C"} collation that listing uses, so cursors are valid in both.
+ */
+final class CatalogSnapshot {
+
+  private static final Comparator<CategoryUserResponse> CATEGORY_ORDER =
+      Comparator.comparing(CategoryUserResponse::getId);
+
+  private final Map<Long, ProductUserResponse> products;
+  private final Map<Long, CategoryUserResponse> categories;
+  private final Map<Long, List<Long>> categoryProductIds;
+
+  private final List<CategoryUserResponse> categoryList;
+  private final Map<ProductSort, List<ProductUserResponse>> productsBySort =
+      new EnumMap<>(ProductSort.class);
+
+  CatalogSnapshot(
+      Collection<ProductUserResponse> products,
+      Collection<CategoryUserResponse> categories,
+      Map<Long, List<Long>> categoryProductIds) {
+    this.products = Map.copyOf(byId(products, ProductUserResponse::getId));
+    this.categories = Map.copyOf(byId(categories, CategoryUserResponse::getId));
+    this.categoryProductIds = copyOf(categoryProductIds);
+
+    this.categoryList = categories.stream().sorted(CATEGORY_ORDER).toList();
+    for (ProductSort sort : ProductSort.values())
+      productsBySort.put(sort, products.stream().sorted(order(sort)).toList());
+  }
+
+  private CatalogSnapshot(
+      Map<Long, ProductUserResponse> products,
+      Map<Long, CategoryUserResponse> categories,
+      Map<Long, List<Long>> categoryProductIds,
+      List<CategoryUserResponse> categoryList,
+      Map<ProductSort, List<ProductUserResponse>> productsBySort) {
+    this.products = Map.copyOf(products);
+    this.categories = Map.copyOf(categories);
+    this.categoryProductIds = Map.copyOf(categoryProductIds);
+    this.categoryList = categoryList;
+    this.productsBySort.putAll(productsBySort);
+  }
+
+  /**
+   * Copy of this snapshot with the given entries replaced by those loaded after a change. IDs
+   * missing from the loaded entries were deleted.
+   *
+   * @param categoryProductIds product IDs of every category whose products changed
+   */
+  CatalogSnapshot with(
+      Collection<Long> productIds,
+      Collection<ProductUserResponse> products,
+      Collection<Long> categoryIds,
+      Collection<CategoryUserResponse> categories,
+      Map<Long, List<Long>> categoryProductIds) {
+    Map<Long, ProductUserResponse> loadedProducts = byId(products, ProductUserResponse::getId);
+    Map<Long, CategoryUserResponse> loadedCategories =
+        byId(categories, CategoryUserResponse::getId);
+    List<ProductUserResponse> oldProducts = current(this.products, productIds, loadedProducts);
+    List<CategoryUserResponse> oldCategories =
+        current(this.categories, categoryIds, loadedCategories);
+
+    Map<Long, List<Long>> newCategoryProductIds = new HashMap<>(this.categoryProductIds);
+    categoryProductIds.forEach((id, ids) -> newCategoryProductIds.put(id, List.copyOf(ids)));
+    Map<Long, CategoryUserResponse> newCategories =
+        replace(this.categories, categoryIds, loadedCategories);
+    categoryIds.stream()
+        .filter(id -> !newCategories.containsKey(id))
+        .forEach(newCategoryProductIds::remove);
+
+    Map<ProductSort, List<ProductUserResponse>> newProductsBySort =
+        new EnumMap<>(ProductSort.class);
+    for (ProductSort sort : ProductSort.values())
+      newProductsBySort.put(
+          sort,
+          resorted(productsBySort.get(sort), oldProducts, loadedProducts.values(), order(sort)));
+
+    return new CatalogSnapshot(
+        replace(this.products, productIds, loadedProducts),
+        newCategories,
+        newCategoryProductIds,
+        resorted(categoryList, oldCategories, loadedCategories.values(), CATEGORY_ORDER),
+        newProductsBySort);
+  }
+
+  int productCount() {
+    return products.size();
+  }
+
+  int categoryCount() {
+    return categories.size();
+  }
+
+  Optional<ProductUserResponse> findProduct(Long id) {
+    return Optional.ofNullable(products.get(id));
+  }
+
+  Optional<CategoryUserResponse> findCategory(Long id) {
+    return Optional.ofNullable(categories.get(id));
+  }
+
+  List<CategoryUserResponse> findCategories() {
+    return categoryList;
+  }
+
+  List<ProductUserResponse> findProductsByCategoryId(Long categoryId) {
+    return categoryProductIds.getOrDefault(categoryId, List.of()).stream()
+        .map(products::get)
+        .filter(Objects::nonNull)
+        .toList();
+  }
+
+  /**
+   * Page of products after the cursor. The position of the cursor is found by binary search, so a
+   * page costs the same wherever it starts.
+   */
+  ProductPage<ProductUserResponse> findPage(
+      ProductSort sort, Sort.Direction direction, ProductCursor after, int limit) {
+    List<ProductUserResponse> sorted = productsBySort.get(sort);
+    int position =
+        after != null ? Collections.binarySearch(sorted, probe(sort, after), order(sort)) : -1;
+    // Products sorting before the cursor, and those up to and including it.
+    int before = position >= 0 ? position : -position - 1;
+    int upTo = position >= 0 ? position + 1 : before;
+
+    if (direction.isAscending()) {
+      int to = Math.min(sorted.size(), upTo + limit);
+      return new ProductPage<>(
+          sorted.subList(upTo, to),
+          to < sorted.size() ? cursor(sort, direction, sorted.get(to - 1)) : null);
+    }
+
+    int to = after != null ? before : sorted.size();
+    int from = Math.max(0, to - limit);
+    return new ProductPage<>(
+        sorted.subList(from, to).reversed(),
+        from > 0 ? cursor(sort, direction, sorted.get(from)) : null);
+  }
+
+  private static Comparator<ProductUserResponse> order(ProductSort sort) {
+    Comparator<ProductUserResponse> byId = Comparator.comparing(ProductUserResponse::getId);
+    return switch (sort) {
+      case ID -> byId;
+      case NAME ->
+          Comparator.comparing(CatalogSnapshot::name, CatalogSnapshot::compareCodePoints)
+              .thenComparing(byId);
+      case PRICE -> Comparator.comparing(CatalogSnapshot::price).thenComparing(byId);
+    };
+  }
+
+  /**
+   * Order of the {@code "C"} collation on UTF-8 text. {@link String#compareTo} compares UTF-16
+   * units instead, which puts characters outside the Basic Multilingual Plane before U+E000-U+FFFF.
+   */
+  private static int compareCodePoints(String a, String b) {
+    int i = 0;
+    while (i < a.length() && i < b.length()) {
+      int codePoint = a.codePointAt(i);
+      int other = b.codePointAt(i);
+      if (codePoint != other) return Integer.compare(codePoint, other);
+      i += Character.charCount(codePoint);
+    }
+    return Integer.compare(a.length(), b.length());
+  }
+
+  // Missing names and prices sort as empty and zero, as in ProductPageRepositoryImpl.
+
+  private static String name(ProductUserResponse product) {
+    return product.getName() != null ? product.getName() : "";
+  }
+
+  private static BigDecimal price(ProductUserResponse product) {
+    return product.getPrice() != null ? product.getPrice() : BigDecimal.ZERO;
+  }
+
+  /** Cursor of the page following the product. */
+  private static String cursor(
+      ProductSort sort, Sort.Direction direction, ProductUserResponse product) {
+    String value =
+        switch (sort) {
+          case ID -> null;
+          case NAME -> name(product);
+          case PRICE -> price(product).toPlainString();
+        };
+    return new ProductCursor(sort, direction, product.getId(), value).encode();
+  }
+
+  /** Product with the sort key and ID of the cursor, to search for it. */
+  private static ProductUserResponse probe(ProductSort sort, ProductCursor cursor) {
+    ProductUserResponse probe = new ProductUserResponse();
+    probe.setId(cursor.id());
+    try {
+      switch (sort) {
+        case ID -> {}
+        case NAME -> probe.setName(cursor.value());
+        case PRICE -> probe.setPrice(new BigDecimal(cursor.value()));
+      }
+    } catch (NumberFormatException e) {
+      throw new InvalidCursorException("malformed cursor");
+    }
+    return probe;
+  }
+
+  /**
+   * Copy of a sorted list with the {@code removed} entries taken out and the {@code added} ones put
+   * in, each found by binary search, so a change costs a copy of the list rather than a sort.
+   */
+  private static <T> List<T> resorted(
+      List<T> sorted, Collection<T> removed, Collection<T> added, Comparator<T> order) {
+    List<T> resorted = new ArrayList<>(sorted);
+    for (T entry : removed) {
+      int position = Collections.binarySearch(resorted, entry, order);
+      if (position >= 0) resorted.remove(position);
+    }
+    for (T entry : added) {
+      int position = Collections.binarySearch(resorted, entry, order);
+      if (position >= 0) resorted.set(position, entry);
+      else resorted.add(-position - 1, entry);
+    }
+    return Collections.unmodifiableList(resorted);
+  }
+
+  /** Entries of {@code current} that are replaced or deleted by the loaded ones. */
+  private static <T> List<T> current(
+      Map<Long, T> current, Collection<Long> ids, Map<Long, T> loaded) {
+    Set<Long> replaced = new HashSet<>(ids);
+    replaced.addAll(loaded.keySet());
+    return replaced.stream().map(current::get).filter(Objects::nonNull).toList();
+  }
+
+  private static <T> Map<Long, T> replace(
+      Map<Long, T> current, Collection<Long> ids, Map<Long, T> loaded) {
+    Map<Long, T> replaced = new HashMap<>(current);
+    ids.forEach(replaced::remove);
+    replaced.putAll(loaded);
+    return replaced;
+  }
+
+  private static <T> Map<Long, T> byId(Collection<T> items, Function<T, Long> idOf) {
+    return items.stream().collect(Collectors.toMap(idOf, Function.identity()));
+  }
+
+  private static Map<Long, List<Long>> copyOf(Map<Long, List<Long>> categoryProductIds) {
+    return categoryProductIds.entrySet().stream()
+        .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, e -> List.copyOf(e.getValue())));
+  }
+}
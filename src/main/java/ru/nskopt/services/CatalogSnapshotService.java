@@ -0,0 +1,93 @@
+package ru.nskopt.services;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.nskopt.events.CatalogChangedEvent;
+import ru.nskopt.events.ImageProcessedEvent;
+import ru.nskopt.properties.CatalogSnapshotProperties;
+import ru.nskopt.repositories.CatalogReadRepository;
+
+/**
+ * Publishes the current {@link CatalogSnapshot} through a volatile reference, so reads take no lock
+ * and never wait for a write. Once a write commits, the entries it touched are reloaded and a new
+ * snapshot replaces the old one; updates are serialized and each reads the committed state, so
+ * the last one to finish reflects every write before it.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CatalogSnapshotService implements ApplicationRunner {
+
+  private final CatalogSnapshotProperties catalogSnapshotProperties;
+  private final CatalogReadRepository catalogReadRepository;
+
+  private volatile CatalogSnapshot snapshot;
+
+  /** Current snapshot, {@code null} when disabled or not loaded yet. */
+  CatalogSnapshot current() {
+    return snapshot;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (catalogSnapshotProperties.isEnabled()) reload();
+  }
+
+  /** Loads the whole catalog anew, for changes made past the services. */
+  public synchronized void reload() {
+    CatalogSnapshot loaded =
+        new CatalogSnapshot(
+            catalogReadRepository.findProducts(),
+            catalogReadRepository.findCategories(),
+            catalogReadRepository.findProductIdsByCategory());
+    snapshot = loaded;
+    log.info(
+        "Loaded catalog snapshot: {} products, {} categories",
+        loaded.productCount(),
+        loaded.categoryCount());
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onCatalogChanged(CatalogChangedEvent event) {
+    update(event.productIds(), event.categoryIds(), event.categoryProductsIds());
+  }
+
+  /** Previews of the processed image get their dimensions and placeholder. */
+  @TransactionalEventListener
+  public void onImageProcessed(ImageProcessedEvent event) {
+    if (snapshot == null) return;
+
+    update(
+        catalogReadRepository.findProductIdsByImageDataId(event.imageDataId()),
+        catalogReadRepository.findCategoryIdsByImageDataId(event.imageDataId()),
+        List.of());
+  }
+
+  private synchronized void update(
+      Collection<Long> productIds,
+      Collection<Long> categoryIds,
+      Collection<Long> categoryProductsIds) {
+    // Not loaded yet: the load will read this change.
+    if (snapshot == null) return;
+
+    Map<Long, List<Long>> categoryProductIds =
+        new HashMap<>(catalogReadRepository.findProductIdsByCategoryIds(categoryProductsIds));
+    categoryProductsIds.forEach(id -> categoryProductIds.putIfAbsent(id, List.of()));
+
+    snapshot =
+        snapshot.with(
+            productIds,
+            catalogReadRepository.findProductsByIds(productIds),
+            categoryIds,
+            catalogReadRepository.findCategoriesByIds(categoryIds),
+            categoryProductIds);
+  }
+}
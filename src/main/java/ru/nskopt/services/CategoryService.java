@@ -1,8 +1,13 @@
 package ru.nskopt.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.nskopt.dto.category.CategoryAdminResponse;
@@ -11,55 +16,82 @@ import ru.nskopt.dto.category.CategoryUserResponse;
 import ru.nskopt.dto.product.ProductUserResponse;
 import ru.nskopt.entities.Category;
 import ru.nskopt.entities.image.Image;
+import ru.nskopt.events.CatalogChangedEvent;
 import ru.nskopt.exceptions.ResourceNotFoundException;
 import ru.nskopt.mappers.CategoryMapper;
-import ru.nskopt.mappers.ProductMapper;
+import ru.nskopt.repositories.CatalogReadRepository;
 import ru.nskopt.repositories.CategoryRepository;
 import ru.nskopt.repositories.ProductRepository;
+import ru.nskopt.services.CatalogCache.Region;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class CategoryService {
 
-  private final ProductMapper productMapper;
-
   private final CategoryRepository categoryRepository;
   private final ProductRepository productRepository;
+  private final CatalogReadRepository catalogReadRepository;
   private final ImageService imageService;
   private final CategoryMapper categoryMapper;
+  private final CatalogCache catalogCache;
+  private final CatalogSnapshotService catalogSnapshotService;
+  private final ApplicationEventPublisher eventPublisher;
+
+  // Cached reads open no transaction, and user reads go to the catalog snapshot when it is
+  // enabled, like those of ProductService.
 
-  @Transactional(readOnly = true)
   public List<CategoryUserResponse> findAll() {
-    return categoryRepository.findAll().stream().map(categoryMapper::toUserResponse).toList();
+    CatalogSnapshot snapshot = catalogSnapshotService.current();
+    if (snapshot != null) return snapshot.findCategories();
+
+    return catalogCache.get(
+        Region.CATEGORY_LIST, CatalogCache.ALL, catalogReadRepository::findCategories);
   }
 
-  @Transactional(readOnly = true)
   public CategoryUserResponse findById(Long id) {
-    return categoryMapper.toUserResponse(
-        categoryRepository
-            .findById(id)
-            .orElseThrow(() -> new ResourceNotFoundException("Category not found " + id)));
+    CatalogSnapshot snapshot = catalogSnapshotService.current();
+    if (snapshot != null)
+      return snapshot
+          .findCategory(id)
+          .orElseThrow(() -> new ResourceNotFoundException("Category not found " + id));
+
+    return catalogCache.get(
+        Region.CATEGORIES,
+        id,
+        () ->
+            catalogReadRepository
+                .findCategoryById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Category not found " + id)));
   }
 
-  @Transactional(readOnly = true)
   public List<CategoryAdminResponse> findAllAdmin() {
-    return categoryRepository.findAll().stream().map(categoryMapper::toAdminResponse).toList();
+    return catalogCache.get(
+        Region.CATEGORY_LIST_ADMIN,
+        CatalogCache.ALL,
+        () ->
+            categoryRepository.findAllWithImages().stream()
+                .map(categoryMapper::toAdminResponse)
+                .toList());
   }
 
-  @Transactional(readOnly = true)
   public CategoryAdminResponse findByIdAdmin(Long id) {
-    return categoryMapper.toAdminResponse(
-        categoryRepository
-            .findById(id)
-            .orElseThrow(() -> new ResourceNotFoundException("Category not found " + id)));
+    return catalogCache.get(
+        Region.CATEGORIES_ADMIN,
+        id,
+        () ->
+            categoryMapper.toAdminResponse(
+                categoryRepository
+                    .findWithImagesById(id)
+                    .orElseThrow(() -> new ResourceNotFoundException("Category not found " + id))));
   }
 
   public CategoryUserResponse save(CategoryUpdateRequest categoryUpdateRequest) {
     log.info("Save {}", categoryUpdateRequest);
 
-    return categoryMapper.toUserResponse(
-        categoryRepository.save(categoryMapper.toCategory(categoryUpdateRequest)));
+    Category category = categoryRepository.save(categoryMapper.toCategory(categoryUpdateRequest));
+    catalogChanged(List.of(), List.of(category.getId()), List.of());
+    return toUserResponse(category);
   }
 
   public CategoryUserResponse update(Long id, CategoryUpdateRequest categoryUpdateRequest) {
@@ -71,7 +103,9 @@ public class CategoryService {
 
     log.info("Update {}", existingCategory);
 
-    return categoryMapper.toUserResponse(categoryRepository.save(existingCategory));
+    Category category = categoryRepository.save(existingCategory);
+    catalogChanged(List.of(), List.of(id), List.of());
+    return toUserResponse(category);
   }
 
   public void deleteById(Long id) {
@@ -79,7 +113,19 @@ public class CategoryService {
       throw new ResourceNotFoundException("Category not found " + id);
 
     log.info("Delete category with id {}", id);
+    // Products of the category are deleted with it, and leave the lists of their other categories.
+    List<Long> productIds = productRepository.findIdsByCategoryId(id);
+    Set<Long> categoryIds = new HashSet<>(List.of(id));
+    if (!productIds.isEmpty())
+      categoryIds.addAll(productRepository.findCategoryIdsByIdIn(productIds));
+
+    List<Long> imageDataIds = new ArrayList<>(imageService.getImageDataIdsByCategoryId(id));
+    if (!productIds.isEmpty())
+      imageDataIds.addAll(imageService.getImageDataIdsByProductIds(productIds));
+
     categoryRepository.deleteById(id);
+    catalogChanged(productIds, List.of(id), categoryIds);
+    imageService.releaseUnreferencedData(imageDataIds);
   }
 
   @Transactional
@@ -90,29 +136,61 @@ public class CategoryService {
             .orElseThrow(() -> new ResourceNotFoundException("Category not found " + categoryId));
 
     List<Image> images = imageService.getImagesByIds(imagesIds);
+    List<Long> detachedImageDataIds = imageService.getImageDataIds(category.getImages());
 
     category.getImages().clear();
     category.getImages().addAll(images);
 
     categoryRepository.save(category);
+    catalogChanged(List.of(), List.of(categoryId), List.of());
+    imageService.releaseUnreferencedData(detachedImageDataIds);
 
     log.info("Updated images for category ID {}: {}", categoryId, imagesIds);
   }
 
-  @Transactional(readOnly = true)
   public List<Long> getImagesIds(Long categoryId) {
+    CatalogSnapshot snapshot = catalogSnapshotService.current();
+    if (snapshot != null)
+      return snapshot
+          .findCategory(categoryId)
+          .map(category -> List.of(category.getImagesIds()))
+          .orElseThrow(() -> new ResourceNotFoundException("Category not found " + categoryId));
+
     Category category =
         categoryRepository
-            .findById(categoryId)
+            .findWithImagesById(categoryId)
             .orElseThrow(() -> new ResourceNotFoundException("Category not found " + categoryId));
 
     return category.getImages().stream().map(Image::getId).toList();
   }
 
-  @Transactional
   public List<ProductUserResponse> getProductsByCategoryId(Long categoryId) {
-    return productRepository.findAllProductsIdByCategoryId(categoryId).stream()
-        .map(productMapper::toUserResponse)
+    CatalogSnapshot snapshot = catalogSnapshotService.current();
+    if (snapshot != null) return snapshot.findProductsByCategoryId(categoryId);
+
+    return catalogCache.get(
+        Region.CATEGORY_PRODUCTS,
+        categoryId,
+        () -> catalogReadRepository.findProductsByCategoryId(categoryId));
+  }
+
+  private void catalogChanged(
+      Collection<Long> productIds,
+      Collection<Long> categoryIds,
+      Collection<Long> categoryProductsIds) {
+    eventPublisher.publishEvent(
+        new CatalogChangedEvent(productIds, categoryIds, categoryProductsIds));
+  }
+
+  private CategoryUserResponse toUserResponse(Category category) {
+    return categoryMapper.toUserResponse(
+        category, imageService.getPreviews(imageIds(List.of(category))));
+  }
+
+  private static List<Long> imageIds(Collection<Category> categories) {
+    return categories.stream()
+        .flatMap(category -> category.getImages().stream())
+        .map(Image::getId)
         .toList();
   }
 }
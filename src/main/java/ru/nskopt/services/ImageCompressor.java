@@ -0,0 +1,393 @@
+package ru.nskopt.services;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import lombok.extern.slf4j.Slf4j;
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+import ru.nskopt.dto.image.CompressedImage;
+import ru.nskopt.dto.image.EncodedImage;
+import ru.nskopt.dto.image.ImageProbe;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.exceptions.ImageProcessingException;
+import ru.nskopt.exceptions.UnsupportedImageFormatException;
+import ru.nskopt.properties.ImageCompressionProperties;
+import ru.nskopt.properties.ImageProcessingProperties;
+import ru.nskopt.utils.HashUtils;
+
+@Slf4j
+@Service
+public class ImageCompressor {
+
+  public static final String FULL = "full";
+
+  private static final String PLACEHOLDER = "placeholder";
+
+  /** Length of the {@code images_data.placeholder} column. */
+  private static final int PLACEHOLDER_MAX_LENGTH = 1024;
+
+  private static final String JPEG = "jpeg";
+  private static final String PNG = "png";
+  private static final String WEBP = "webp";
+
+  /** Bytes {@link #sniffFormat} needs to recognize every supported format. */
+  private static final int SNIFF_LENGTH = 12;
+
+  /**
+   * Encoder output buffer reused by each worker thread, so encoding allocates only the final
+   * array. Buffers that grew past {@link #MAX_POOLED_BUFFER} are not kept.
+   */
+  private static final ThreadLocal<ByteArrayOutputStream> ENCODE_BUFFER =
+      ThreadLocal.withInitial(() -> new ByteArrayOutputStream(256 * 1024));
+
+  private static final int MAX_POOLED_BUFFER = 4 * 1024 * 1024;
+
+  private final ImageCompressionProperties imageCompressionProperties;
+  private final ImageProcessingProperties imageProcessingProperties;
+
+  private final List<ImageFormat> formats;
+
+  public ImageCompressor(
+      ImageCompressionProperties imageCompressionProperties,
+      ImageProcessingProperties imageProcessingProperties) {
+    this.imageCompressionProperties = imageCompressionProperties;
+    this.imageProcessingProperties = imageProcessingProperties;
+    this.formats = encodableFormats(imageCompressionProperties.getFormats());
+
+    // Sources are already in memory or in a spooled file; a temp-file cache only adds disk I/O.
+    ImageIO.setUseCache(false);
+  }
+
+  /** Formats images are encoded in, in order of preference, the primary one included. */
+  public List<ImageFormat> getFormats() {
+    return formats;
+  }
+
+  /**
+   * Decodes the source once, resizes it to the full size and encodes the full image and every
+   * configured smaller rendition from that decoded image, in every configured format.
+   */
+  public CompressedImage compress(byte[] data) throws IOException {
+    int size = imageCompressionProperties.getSize();
+
+    BufferedImage full =
+        Thumbnails.of(decode(data, probe(data)))
+            .size(size, size)
+            .keepAspectRatio(false)
+            .asBufferedImage();
+
+    Map<String, Integer> sizes = new LinkedHashMap<>();
+    sizes.put(FULL, size);
+    imageCompressionProperties.getRenditions().entrySet().stream()
+        .filter(rendition -> rendition.getValue() < size)
+        .forEach(rendition -> sizes.put(rendition.getKey(), rendition.getValue()));
+
+    EncodedImage fullEncoded = null;
+    List<EncodedImage> renditions = new ArrayList<>();
+    List<EncodedImage> alternates = new ArrayList<>();
+    for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+      for (ImageFormat format : formats) {
+        EncodedImage encoded = encode(entry.getKey(), format, full, entry.getValue());
+        if (format != ImageFormat.PRIMARY) alternates.add(encoded);
+        else if (FULL.equals(entry.getKey())) fullEncoded = encoded;
+        else renditions.add(encoded);
+      }
+    }
+
+    return new CompressedImage(fullEncoded, renditions, alternates, placeholder(full));
+  }
+
+  /** Tiny primary-format encoding of the image as a data URI, stretched and blurred by clients. */
+  private String placeholder(BufferedImage full) throws IOException {
+    EncodedImage placeholder =
+        encode(
+            PLACEHOLDER,
+            ImageFormat.PRIMARY,
+            full,
+            imageCompressionProperties.getPlaceholderSize());
+
+    String dataUri =
+        "data:"
+            + ImageFormat.PRIMARY.getMediaType()
+            + ";base64,"
+            + Base64.getEncoder().encodeToString(placeholder.data());
+    if (dataUri.length() > PLACEHOLDER_MAX_LENGTH) {
+      log.warn("Placeholder of {} characters is too long, skipping it", dataUri.length());
+      return null;
+    }
+
+    return dataUri;
+  }
+
+  /**
+   * Estimates the heap {@link #compress} needs for {@code source} from its header alone: the
+   * decoded, possibly subsampled, ARGB raster plus the resized copy.
+   */
+  public long estimateDecodedSize(byte[] source) {
+    return estimateDecodedSize(new ByteArrayResource(source));
+  }
+
+  /** Same as {@link #estimateDecodedSize(byte[])}, reading only the header of the stream. */
+  public long estimateDecodedSize(InputStreamSource source) {
+    ImageProbe probe = probe(source);
+    int subsampling = subsampling(probe);
+    int size = imageCompressionProperties.getSize();
+
+    long decoded =
+        4L
+            * ((probe.width() + subsampling - 1) / subsampling)
+            * ((probe.height() + subsampling - 1) / subsampling);
+    return decoded + 4L * size * size;
+  }
+
+  /**
+   * Identifies the format from the magic bytes, whatever the declared content type, and reads the
+   * dimensions from the header without decoding the pixels.
+   *
+   * @throws UnsupportedImageFormatException if the data is not a PNG, JPEG or WebP image
+   * @throws ImageProcessingException if the image has more pixels than may be decoded
+   */
+  public ImageProbe probe(byte[] source) {
+    return probe(new ByteArrayResource(source));
+  }
+
+  /** Same as {@link #probe(byte[])}, reading only the header of the stream. */
+  public ImageProbe probe(InputStreamSource source) {
+    ImageProbe probe;
+    try {
+      String format;
+      try (InputStream input = source.getInputStream()) {
+        format = sniffFormat(input.readNBytes(SNIFF_LENGTH));
+      }
+      if (format == null) throw new UnsupportedImageFormatException("unrecognized image data");
+
+      try (InputStream input = source.getInputStream()) {
+        probe =
+            withReader(
+                input,
+                format,
+                true,
+                reader -> new ImageProbe(format, reader.getWidth(0), reader.getHeight(0)));
+      }
+    } catch (IOException e) {
+      throw new UnsupportedImageFormatException("unreadable image header: " + e.getMessage());
+    }
+
+    if (probe.width() <= 0 || probe.height() <= 0)
+      throw new UnsupportedImageFormatException("invalid image dimensions");
+    if (probe.pixels() > imageProcessingProperties.getMaxPixels())
+      throw new ImageProcessingException(
+          String.format(
+              "image of %dx%d exceeds %d pixels",
+              probe.width(), probe.height(), imageProcessingProperties.getMaxPixels()));
+
+    return probe;
+  }
+
+  /** Resizes an already compressed image to arbitrary dimensions, quality and format. */
+  public byte[] resize(byte[] data, int width, int height, double quality, ImageFormat format)
+      throws IOException {
+    BufferedImage resized =
+        Thumbnails.of(new ByteArrayInputStream(data))
+            .size(width, height)
+            .keepAspectRatio(false)
+            .asBufferedImage();
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Thumbnails.of(format.hasAlpha() ? resized : withoutAlpha(resized))
+        .scale(1)
+        .outputFormat(format.getFormatName())
+        .outputQuality(quality)
+        .toOutputStream(outputStream);
+
+    return outputStream.toByteArray();
+  }
+
+  /** Hash of the source bytes and of the settings {@link #compress} would encode them with. */
+  public String sourceKey(byte[] source) {
+    MessageDigest digest = HashUtils.newSha256();
+    digest.update(source);
+    digest.update(settingsFingerprint().getBytes(StandardCharsets.UTF_8));
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /** Same as {@link #sourceKey(byte[])}, hashing the stream without holding it in memory. */
+  public String sourceKey(InputStreamSource source) throws IOException {
+    MessageDigest digest = HashUtils.newSha256();
+    try (InputStream input = new DigestInputStream(source.getInputStream(), digest)) {
+      input.transferTo(OutputStream.nullOutputStream());
+    }
+    digest.update(settingsFingerprint().getBytes(StandardCharsets.UTF_8));
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Hash of the current encoding settings. Image data encoded with other settings is picked up by
+   * {@link ImageReencodeService}.
+   */
+  public String settingsKey() {
+    return HashUtils.sha256(settingsFingerprint().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String settingsFingerprint() {
+    return formats
+        + ":"
+        + imageCompressionProperties.getSize()
+        + ":"
+        + imageCompressionProperties.getQuality()
+        + ":"
+        + new TreeMap<>(imageCompressionProperties.getRenditions());
+  }
+
+  /**
+   * Decodes only every n-th pixel of sources much larger than the full size, so peak memory and
+   * CPU follow the output size rather than the source. EXIF orientation is applied afterwards, as
+   * {@link Thumbnails} does when it decodes on its own.
+   */
+  private BufferedImage decode(byte[] source, ImageProbe probe) throws IOException {
+    return withReader(
+        new ByteArrayInputStream(source),
+        probe.format(),
+        false,
+        reader -> {
+          ImageReadParam param = reader.getDefaultReadParam();
+          int subsampling = subsampling(probe);
+          if (subsampling > 1) param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+          BufferedImage image = reader.read(0, param);
+          if (!JPEG.equals(probe.format())) return image;
+
+          Orientation orientation = ExifUtils.getExifOrientation(reader, 0);
+          return orientation != null
+              ? ExifFilterUtils.getFilterForOrientation(orientation).apply(image)
+              : image;
+        });
+  }
+
+  /**
+   * Source subsampling that still leaves at least twice the full size in both dimensions, for the
+   * final resize to smooth over. The WebP reader decodes at full size regardless.
+   */
+  private int subsampling(ImageProbe probe) {
+    if (WEBP.equals(probe.format())) return 1;
+
+    int size = imageCompressionProperties.getSize();
+    return Math.max(1, Math.min(probe.width(), probe.height()) / (2 * size));
+  }
+
+  @FunctionalInterface
+  private interface ReaderCallback<T> {
+    T apply(ImageReader reader) throws IOException;
+  }
+
+  private static <T> T withReader(
+      InputStream source, String format, boolean ignoreMetadata, ReaderCallback<T> callback)
+      throws IOException {
+    Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(format);
+    if (!readers.hasNext()) throw new UnsupportedImageFormatException("no reader for " + format);
+
+    ImageReader reader = readers.next();
+    try (ImageInputStream input = ImageIO.createImageInputStream(source)) {
+      reader.setInput(input, true, ignoreMetadata);
+      return callback.apply(reader);
+    } finally {
+      reader.dispose();
+    }
+  }
+
+  private static String sniffFormat(byte[] data) {
+    if (startsWith(data, 0, 0xFF, 0xD8, 0xFF)) return JPEG;
+    if (startsWith(data, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) return PNG;
+    if (startsWith(data, 0, 'R', 'I', 'F', 'F') && startsWith(data, 8, 'W', 'E', 'B', 'P'))
+      return WEBP;
+    return null;
+  }
+
+  private static boolean startsWith(byte[] data, int offset, int... signature) {
+    if (data.length < offset + signature.length) return false;
+
+    for (int i = 0; i < signature.length; i++)
+      if ((data[offset + i] & 0xFF) != signature[i]) return false;
+
+    return true;
+  }
+
+  private EncodedImage encode(String name, ImageFormat format, BufferedImage image, int size)
+      throws IOException {
+    ByteArrayOutputStream outputStream = ENCODE_BUFFER.get();
+    outputStream.reset();
+    try {
+      Thumbnails.of(format.hasAlpha() ? image : withoutAlpha(image))
+          .size(size, size)
+          .keepAspectRatio(false)
+          .outputFormat(format.getFormatName())
+          .outputQuality(imageCompressionProperties.getQuality())
+          .toOutputStream(outputStream);
+
+      return new EncodedImage(name, format, size, size, outputStream.toByteArray());
+    } finally {
+      if (outputStream.size() > MAX_POOLED_BUFFER) ENCODE_BUFFER.remove();
+    }
+  }
+
+  /** Flattens transparency onto white for formats that cannot store it. */
+  private static BufferedImage withoutAlpha(BufferedImage image) {
+    if (!image.getColorModel().hasAlpha()) return image;
+
+    BufferedImage flattened =
+        new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = flattened.createGraphics();
+    try {
+      graphics.drawImage(image, 0, 0, Color.WHITE, null);
+    } finally {
+      graphics.dispose();
+    }
+    return flattened;
+  }
+
+  private static List<ImageFormat> encodableFormats(List<ImageFormat> configured) {
+    List<ImageFormat> formats = new ArrayList<>();
+    formats.add(ImageFormat.PRIMARY);
+
+    for (ImageFormat format : configured) {
+      if (formats.contains(format)) continue;
+
+      if (ImageIO.getImageWritersByFormatName(format.getFormatName()).hasNext())
+        formats.add(format);
+      else log.warn("No ImageIO writer for {}, images will not be encoded in it", format);
+    }
+
+    // Keep the configured order of preference, wherever the primary format is in it.
+    formats.sort(
+        Comparator.comparingInt(
+            format -> configured.contains(format) ? configured.indexOf(format) : -1));
+    return List.copyOf(formats);
+  }
+}
@@ -0,0 +1,121 @@
+package ru.nskopt.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.nskopt.exceptions.ImageAdmissionException;
+import ru.nskopt.exceptions.ImageProcessingException;
+import ru.nskopt.properties.ImageProcessingProperties;
+
+/**
+ * Admission control for the compression pipeline. Each upload that has to be compressed reserves
+ * the heap its decode is estimated to take, from the image header, until it has been processed.
+ * Uploads that would take the reserved total over {@code app.image.processing.decode-budget} are
+ * turned away up front instead of being decoded and risking the heap of the whole application.
+ */
+@Service
+public class ImageDecodeBudget {
+
+  private final long budget;
+  private final Duration retryAfter;
+
+  private final AtomicLong reserved = new AtomicLong();
+  private final Map<Long, Long> assigned = new ConcurrentHashMap<>();
+
+  private final Counter rejectedCounter;
+
+  public ImageDecodeBudget(
+      ImageProcessingProperties imageProcessingProperties, MeterRegistry meterRegistry) {
+    this.budget = imageProcessingProperties.getDecodeBudget().toBytes();
+    this.retryAfter = imageProcessingProperties.getAdmissionRetryAfter();
+
+    this.rejectedCounter =
+        Counter.builder("images.admission.rejected")
+            .description("Uploads rejected because the decode budget was used up")
+            .register(meterRegistry);
+    Gauge.builder("images.admission.reserved", reserved, AtomicLong::get)
+        .description("Estimated heap reserved by admitted uploads")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    Gauge.builder("images.admission.pending", assigned, Map::size)
+        .description("Admitted uploads waiting for or undergoing compression")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Reserves {@code bytes} of the budget.
+   *
+   * @throws ImageProcessingException if the image would not fit even into an idle budget
+   * @throws ImageAdmissionException if the budget has no room for it right now
+   */
+  public void reserve(long bytes) {
+    if (bytes > budget)
+      throw new ImageProcessingException(
+          String.format("decoded image of %d MB exceeds the decode budget", bytes >> 20));
+
+    if (!tryReserve(bytes)) {
+      rejectedCounter.increment();
+      throw new ImageAdmissionException("Too many images are being processed", retryAfter);
+    }
+  }
+
+  public void release(long bytes) {
+    reserved.addAndGet(-bytes);
+  }
+
+  /**
+   * Hands a reservation over to the image data it was made for; it is released by {@link
+   * #complete} once the image has been processed, or right away if the transaction rolls back.
+   */
+  public void assign(Long imageDataId, long bytes) {
+    assigned.put(imageDataId, bytes);
+
+    if (TransactionSynchronizationManager.isSynchronizationActive())
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+              if (status != STATUS_COMMITTED) complete(imageDataId);
+            }
+          });
+  }
+
+  /**
+   * Makes sure image data about to be compressed holds a reservation. Uploads admitted before a
+   * restart have none and take one here.
+   *
+   * @return {@code false} if there is no room for it yet
+   */
+  public boolean admit(Long imageDataId, long bytes) {
+    if (assigned.containsKey(imageDataId)) return true;
+
+    // Images larger than the whole budget, uploaded before it was enforced, run on their own.
+    boolean reservedNow = bytes > budget ? reserved.compareAndSet(0, bytes) : tryReserve(bytes);
+    if (!reservedNow) return false;
+
+    assigned.put(imageDataId, bytes);
+    return true;
+  }
+
+  public void complete(Long imageDataId) {
+    Long bytes = assigned.remove(imageDataId);
+    if (bytes != null) release(bytes);
+  }
+
+  private boolean tryReserve(long bytes) {
+    long current;
+    do {
+      current = reserved.get();
+      if (current + bytes > budget) return false;
+    } while (!reserved.compareAndSet(current, current + bytes));
+
+    return true;
+  }
+}
@@ -0,0 +1,166 @@
+package ru.nskopt.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.properties.ImageResizeProperties;
+
+/**
+ * Size-bounded LRU cache of resized images on local disk. The index lives in memory and is rebuilt
+ * from the directory on startup, oldest files first. Entries are files named by their key and the
+ * extension of their format, so the same key can be cached once per format.
+ */
+@Slf4j
+@Service
+public class ImageDiskCache {
+
+  private final Path directory;
+  private final long maxBytes;
+
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter evictions;
+
+  public ImageDiskCache(ImageResizeProperties imageResizeProperties, MeterRegistry meterRegistry)
+      throws IOException {
+    this.directory = imageResizeProperties.getCacheDirectory();
+    this.maxBytes = imageResizeProperties.getCacheMaxSize().toBytes();
+
+    Files.createDirectories(directory);
+    load();
+
+    hits = meterRegistry.counter("images.resize.cache", "result", "hit");
+    misses = meterRegistry.counter("images.resize.cache", "result", "miss");
+    evictions = meterRegistry.counter("images.resize.cache.evictions");
+    Gauge.builder("images.resize.cache.size", this, ImageDiskCache::getTotalBytes)
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Copies the cached entry to {@code outputStream}.
+   *
+   * @return {@code false} on a cache miss, in which case nothing has been written
+   */
+  public boolean copyTo(String key, ImageFormat format, OutputStream outputStream)
+      throws IOException {
+    String fileName = fileName(key, format);
+    synchronized (this) {
+      if (entries.get(fileName) == null) {
+        misses.increment();
+        return false;
+      }
+    }
+
+    try {
+      Files.copy(directory.resolve(fileName), outputStream);
+    } catch (NoSuchFileException e) {
+      remove(fileName);
+      misses.increment();
+      return false;
+    }
+
+    hits.increment();
+    return true;
+  }
+
+  public void put(String key, ImageFormat format, byte[] data) throws IOException {
+    String fileName = fileName(key, format);
+    Path temp = Files.createTempFile(directory, key, ".tmp");
+    try {
+      Files.write(temp, data);
+      Files.move(temp, directory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+
+    synchronized (this) {
+      Long previous = entries.put(fileName, (long) data.length);
+      totalBytes += data.length - (previous != null ? previous : 0);
+      evict();
+    }
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  private synchronized void remove(String fileName) {
+    Long size = entries.remove(fileName);
+    if (size != null) totalBytes -= size;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> eldest = iterator.next();
+      iterator.remove();
+      totalBytes -= eldest.getValue();
+      evictions.increment();
+
+      try {
+        Files.deleteIfExists(directory.resolve(eldest.getKey()));
+      } catch (IOException e) {
+        log.warn("Failed to delete cached image {}: {}", eldest.getKey(), e.getMessage());
+      }
+    }
+  }
+
+  private void load() throws IOException {
+    List<Path> files;
+    try (Stream<Path> stream = Files.list(directory)) {
+      files =
+          stream
+              .filter(ImageDiskCache::isEntry)
+              .sorted(Comparator.comparing(ImageDiskCache::lastModified))
+              .toList();
+    }
+
+    for (Path file : files) {
+      long size = Files.size(file);
+      entries.put(file.getFileName().toString(), size);
+      totalBytes += size;
+    }
+
+    log.info("Loaded {} cached images, {} bytes", entries.size(), totalBytes);
+  }
+
+  private static String fileName(String key, ImageFormat format) {
+    return key + "." + format.getFormatName();
+  }
+
+  /** Whether the file is a cached image rather than an unfinished write. */
+  private static boolean isEntry(Path file) {
+    String name = file.getFileName().toString();
+    return Arrays.stream(ImageFormat.values())
+        .anyMatch(format -> name.endsWith("." + format.getFormatName()));
+  }
+
+  private static long lastModified(Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package ru.nskopt.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import ru.nskopt.dto.image.ImageMetadata;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.properties.ImageCompressionProperties;
+import ru.nskopt.properties.ImageCompressionProperties.FormatPolicy;
+
+/**
+ * Chooses the format an image is served in from the {@code Accept} header and the configured
+ * {@link FormatPolicy}, and reports how many bytes alternate formats save over the primary one.
+ */
+@Service
+public class ImageFormatNegotiator {
+
+  private final ImageCompressor imageCompressor;
+  private final ImageCompressionProperties imageCompressionProperties;
+  private final MeterRegistry meterRegistry;
+
+  public ImageFormatNegotiator(
+      ImageCompressor imageCompressor,
+      ImageCompressionProperties imageCompressionProperties,
+      MeterRegistry meterRegistry) {
+    this.imageCompressor = imageCompressor;
+    this.imageCompressionProperties = imageCompressionProperties;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Formats the {@code Accept} header allows. Each format is judged by the most specific media
+   * range matching it; wildcards only count for {@link ImageFormat#isUniversal() universal}
+   * formats. No header accepts everything.
+   */
+  public Set<ImageFormat> acceptable(String accept) {
+    if (accept == null || accept.isBlank()) return EnumSet.allOf(ImageFormat.class);
+
+    List<MediaType> ranges;
+    try {
+      ranges = MediaType.parseMediaTypes(accept);
+    } catch (InvalidMediaTypeException e) {
+      return EnumSet.allOf(ImageFormat.class);
+    }
+
+    Set<ImageFormat> acceptable = EnumSet.noneOf(ImageFormat.class);
+    for (ImageFormat format : ImageFormat.values()) {
+      MediaType mediaType = MediaType.parseMediaType(format.getMediaType());
+      ranges.stream()
+          .filter(range -> range.includes(mediaType))
+          .filter(range -> format.isUniversal() || range.equalsTypeAndSubtype(mediaType))
+          .max(Comparator.comparingInt(ImageFormatNegotiator::specificity))
+          .filter(range -> range.getQualityValue() > 0)
+          .ifPresent(range -> acceptable.add(format));
+    }
+    return acceptable;
+  }
+
+  /**
+   * Picks among encodings of the same image the one to serve, falling back to the primary
+   * encoding when the client accepts none of them.
+   */
+  public ImageMetadata choose(List<ImageMetadata> encodings, Set<ImageFormat> acceptable) {
+    ImageMetadata primary =
+        encodings.stream()
+            .filter(encoding -> format(encoding) == ImageFormat.PRIMARY)
+            .findFirst()
+            .orElse(encodings.get(0));
+
+    Comparator<ImageMetadata> order =
+        imageCompressionProperties.getFormatPolicy() == FormatPolicy.SMALLEST
+            ? Comparator.comparing(
+                    ImageMetadata::getDataSize, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(this::preference)
+            : Comparator.comparing(this::preference);
+
+    ImageMetadata chosen =
+        encodings.stream()
+            .filter(encoding -> acceptable.contains(format(encoding)))
+            .min(order)
+            .orElse(primary);
+
+    recordServed(chosen, primary);
+    return chosen;
+  }
+
+  /** Format for images encoded on demand: the most preferred one the client accepts. */
+  public ImageFormat preferred(Set<ImageFormat> acceptable) {
+    return imageCompressor.getFormats().stream()
+        .filter(acceptable::contains)
+        .findFirst()
+        .orElse(ImageFormat.PRIMARY);
+  }
+
+  private void recordServed(ImageMetadata chosen, ImageMetadata primary) {
+    String format = format(chosen).getFormatName();
+    Counter.builder("images.format.served")
+        .description("Stored images served, by format")
+        .tag("format", format)
+        .register(meterRegistry)
+        .increment();
+
+    if (chosen != primary && chosen.getDataSize() != null && primary.getDataSize() != null)
+      Counter.builder("images.format.saved")
+          .description("Bytes saved by serving a format other than the primary one")
+          .baseUnit("bytes")
+          .tag("format", format)
+          .register(meterRegistry)
+          .increment(primary.getDataSize() - chosen.getDataSize());
+  }
+
+  private int preference(ImageMetadata encoding) {
+    int index = imageCompressor.getFormats().indexOf(format(encoding));
+    return index < 0 ? Integer.MAX_VALUE : index;
+  }
+
+  private static ImageFormat format(ImageMetadata encoding) {
+    return encoding.getFormat() != null ? encoding.getFormat() : ImageFormat.PRIMARY;
+  }
+
+  private static int specificity(MediaType range) {
+    if (range.isWildcardType()) return 0;
+    return range.isWildcardSubtype() ? 1 : 2;
+  }
+}
@@ -0,0 +1,128 @@
+package ru.nskopt.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.nskopt.events.ImageDataReleasedEvent;
+import ru.nskopt.properties.ImageCacheProperties;
+
+/**
+ * Read-through cache of hot image bytes, keyed by content hash and bounded by total bytes. Caffeine
+ * admits new entries with W-TinyLFU, so a scan over rarely requested images does not evict the
+ * frequently requested ones.
+ */
+@Service
+public class ImageMemoryCache {
+
+  @FunctionalInterface
+  public interface Loader {
+    void writeTo(OutputStream outputStream) throws IOException;
+  }
+
+  private final Cache<String, byte[]> cache;
+  private final int maxEntrySize;
+
+  public ImageMemoryCache(ImageCacheProperties imageCacheProperties, MeterRegistry meterRegistry) {
+    this.maxEntrySize = (int) imageCacheProperties.getMaxEntrySize().toBytes();
+    this.cache =
+        Caffeine.newBuilder()
+            .maximumWeight(imageCacheProperties.getMaxSize().toBytes())
+            .weigher((String key, byte[] value) -> value.length)
+            .recordStats()
+            .build();
+
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "images.memory");
+    Gauge.builder("images.memory.cache.size", cache, ImageMemoryCache::weightedSize)
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Writes the cached bytes for {@code contentHash}, or streams them from {@code loader} and caches
+   * them on the way if they are small enough.
+   */
+  public void writeTo(String contentHash, OutputStream outputStream, Loader loader)
+      throws IOException {
+    if (contentHash == null) {
+      loader.writeTo(outputStream);
+      return;
+    }
+
+    byte[] cached = cache.getIfPresent(contentHash);
+    if (cached != null) {
+      outputStream.write(cached);
+      return;
+    }
+
+    CapturingOutputStream capturing = new CapturingOutputStream(outputStream, maxEntrySize);
+    loader.writeTo(capturing);
+
+    byte[] captured = capturing.captured();
+    if (captured != null) cache.put(contentHash, captured);
+  }
+
+  /** Cached bytes for {@code contentHash} without loading them, {@code null} if not cached. */
+  public byte[] getIfPresent(String contentHash) {
+    return contentHash != null ? cache.getIfPresent(contentHash) : null;
+  }
+
+  public void invalidateAll(Collection<String> contentHashes) {
+    cache.invalidateAll(contentHashes);
+  }
+
+  @TransactionalEventListener
+  public void onImageDataReleased(ImageDataReleasedEvent event) {
+    invalidateAll(event.contentHashes());
+  }
+
+  private static long weightedSize(Cache<String, byte[]> cache) {
+    return cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L);
+  }
+
+  /** Passes bytes through while keeping a copy, until the copy would exceed the limit. */
+  private static class CapturingOutputStream extends FilterOutputStream {
+
+    private final int limit;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    CapturingOutputStream(OutputStream outputStream, int limit) {
+      super(outputStream);
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      if (copy == null) return;
+
+      if (copy.size() + 1 > limit) copy = null;
+      else copy.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      capture(b, off, len);
+    }
+
+    byte[] captured() {
+      return copy != null ? copy.toByteArray() : null;
+    }
+
+    private void capture(byte[] b, int off, int len) {
+      if (copy == null) return;
+
+      if (copy.size() + len > limit) copy = null;
+      else copy.write(b, off, len);
+    }
+  }
+}
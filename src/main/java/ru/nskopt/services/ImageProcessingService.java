@@ -0,0 +1,177 @@
+package ru.nskopt.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.nskopt.dto.image.CompressedImage;
+import ru.nskopt.entities.image.ImageStatus;
+import ru.nskopt.events.ImageUploadedEvent;
+import ru.nskopt.exceptions.ImageProcessingException;
+import ru.nskopt.exceptions.ResourceNotFoundException;
+import ru.nskopt.exceptions.UnsupportedImageFormatException;
+import ru.nskopt.properties.ImageProcessingProperties;
+import ru.nskopt.repositories.ImageDataRepository;
+
+/**
+ * Compresses uploaded originals on a bounded worker pool, off the request thread. Uploads are
+ * submitted once their transaction commits; anything rejected by a full queue, interrupted by a
+ * restart or failed by a storage or database error is picked up again by {@link
+ * #resubmitPending()}. Only images that cannot be decoded are marked as failed.
+ */
+@Slf4j
+@Service
+public class ImageProcessingService {
+
+  private final ImageDataRepository imageDataRepository;
+  private final ImageCompressor imageCompressor;
+  private final ImageDecodeBudget imageDecodeBudget;
+  private final ImageService imageService;
+  private final ImageProcessingProperties imageProcessingProperties;
+  private final ThreadPoolTaskExecutor imageProcessingExecutor;
+
+  private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+  /** Set when a submission was rejected, so the backlog is resubmitted once the queue drains. */
+  private final AtomicBoolean backlog = new AtomicBoolean();
+
+  private final Timer processingTimer;
+  private final Counter failureCounter;
+  private final Counter rejectedCounter;
+
+  public ImageProcessingService(
+      ImageDataRepository imageDataRepository,
+      ImageCompressor imageCompressor,
+      ImageDecodeBudget imageDecodeBudget,
+      ImageService imageService,
+      ImageProcessingProperties imageProcessingProperties,
+      ThreadPoolTaskExecutor imageProcessingExecutor,
+      MeterRegistry meterRegistry) {
+    this.imageDataRepository = imageDataRepository;
+    this.imageCompressor = imageCompressor;
+    this.imageDecodeBudget = imageDecodeBudget;
+    this.imageService = imageService;
+    this.imageProcessingProperties = imageProcessingProperties;
+    this.imageProcessingExecutor = imageProcessingExecutor;
+
+    this.processingTimer =
+        Timer.builder("images.processing.duration")
+            .description("Time to compress an uploaded image")
+            .register(meterRegistry);
+    this.failureCounter =
+        Counter.builder("images.processing.failures")
+            .description("Uploads that could not be compressed")
+            .register(meterRegistry);
+    this.rejectedCounter =
+        Counter.builder("images.processing.rejected")
+            .description("Submissions rejected because the queue was full")
+            .register(meterRegistry);
+    Gauge.builder(
+            "images.processing.queue",
+            imageProcessingExecutor,
+            ThreadPoolTaskExecutor::getQueueSize)
+        .description("Uploads waiting for a worker")
+        .register(meterRegistry);
+    Gauge.builder(
+            "images.processing.active",
+            imageProcessingExecutor,
+            ThreadPoolTaskExecutor::getActiveCount)
+        .description("Uploads being compressed")
+        .register(meterRegistry);
+  }
+
+  @TransactionalEventListener
+  public void onImageUploaded(ImageUploadedEvent event) {
+    submit(event.imageDataId());
+  }
+
+  @Scheduled(
+      initialDelayString = "${app.image.processing.retry-delay:PT1M}",
+      fixedDelayString = "${app.image.processing.retry-delay:PT1M}")
+  public void resubmitPending() {
+    List<Long> pending =
+        imageDataRepository.findIdsByStatus(
+            ImageStatus.PROCESSING,
+            Limit.of(
+                imageProcessingProperties.getQueueCapacity()
+                    + imageProcessingProperties.getThreads()));
+
+    pending.forEach(this::submit);
+  }
+
+  private void submit(Long imageDataId) {
+    if (!inFlight.add(imageDataId)) return;
+
+    try {
+      imageProcessingExecutor.execute(() -> process(imageDataId));
+    } catch (RejectedExecutionException e) {
+      inFlight.remove(imageDataId);
+      backlog.set(true);
+      rejectedCounter.increment();
+      log.warn("Image processing queue is full, image data {} will be retried", imageDataId);
+    }
+  }
+
+  private void process(Long imageDataId) {
+    Timer.Sample sample = Timer.start();
+    try {
+      compress(imageDataId);
+    } catch (UnsupportedImageFormatException
+        | ImageProcessingException
+        | ResourceNotFoundException e) {
+      failureCounter.increment();
+      imageDataRepository.updateStatus(imageDataId, ImageStatus.FAILED);
+      log.warn("Failed to process image data {}: {}", imageDataId, e.getMessage());
+    } catch (Exception e) {
+      // Storage and database errors are usually transient; the retry sweep picks the row up again.
+      log.warn("Failed to process image data {}, will retry: {}", imageDataId, e.getMessage());
+    } finally {
+      sample.stop(processingTimer);
+      imageDecodeBudget.complete(imageDataId);
+      inFlight.remove(imageDataId);
+    }
+
+    // Large batches overflow the queue; feed the rest in as soon as there is room.
+    if (imageProcessingExecutor.getQueueSize() == 0 && backlog.compareAndSet(true, false))
+      resubmitPending();
+  }
+
+  /**
+   * Compresses the original of the image data. Images that cannot be decoded fail with {@link
+   * UnsupportedImageFormatException} or {@link ImageProcessingException}; any other exception
+   * comes from reading or storing the bytes.
+   */
+  private void compress(Long imageDataId) throws IOException {
+    byte[] original = imageService.readOriginal(imageDataId);
+    // Uploads admitted before a restart lost their reservation; the retry sweep tries again.
+    if (!imageDecodeBudget.admit(imageDataId, imageCompressor.estimateDecodedSize(original)))
+      return;
+
+    CompressedImage compressed;
+    try {
+      compressed = imageCompressor.compress(original);
+    } catch (IOException | RuntimeException e) {
+      throw new ImageProcessingException("undecodable image: " + e.getMessage());
+    }
+    imageService.completeProcessing(imageDataId, compressed);
+
+    log.info(
+        "Processed image data {} size {} kB, {} renditions, {} alternate encodings",
+        imageDataId,
+        String.format("%.2f", (double) compressed.full().data().length / 1000),
+        compressed.renditions().size(),
+        compressed.alternates().size());
+  }
+}
@@ -0,0 +1,150 @@
+package ru.nskopt.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import ru.nskopt.dto.image.CompressedImage;
+import ru.nskopt.exceptions.ImageAdmissionException;
+import ru.nskopt.exceptions.ImageProcessingException;
+import ru.nskopt.exceptions.ResourceNotFoundException;
+import ru.nskopt.exceptions.UnsupportedImageFormatException;
+import ru.nskopt.properties.ImageReencodeProperties;
+import ru.nskopt.repositories.ImageDataRepository;
+
+/**
+ * Re-encodes stored images from their originals when the compression settings change. Progress
+ * is the {@code settings_key} of each image data row, so the job resumes where it stopped after a
+ * restart. Runs take one batch at a time on a low-priority pool sized to a share of the cores,
+ * and yield to uploads waiting for processing.
+ */
+@Slf4j
+@Service
+public class ImageReencodeService {
+
+  private final ImageDataRepository imageDataRepository;
+  private final ImageCompressor imageCompressor;
+  private final ImageDecodeBudget imageDecodeBudget;
+  private final ImageService imageService;
+  private final ImageReencodeProperties imageReencodeProperties;
+  private final ThreadPoolTaskExecutor imageReencodeExecutor;
+  private final ThreadPoolTaskExecutor imageProcessingExecutor;
+
+  /** Set while a batch is being re-encoded, so runs never overlap. */
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  /** Last image data ID of the previous batch, rows before it are done or skipped for now. */
+  private volatile Long afterId = 0L;
+
+  private final Counter replacedCounter;
+  private final Counter keptCounter;
+  private final Counter savedBytesCounter;
+
+  public ImageReencodeService(
+      ImageDataRepository imageDataRepository,
+      ImageCompressor imageCompressor,
+      ImageDecodeBudget imageDecodeBudget,
+      ImageService imageService,
+      ImageReencodeProperties imageReencodeProperties,
+      ThreadPoolTaskExecutor imageReencodeExecutor,
+      ThreadPoolTaskExecutor imageProcessingExecutor,
+      MeterRegistry meterRegistry) {
+    this.imageDataRepository = imageDataRepository;
+    this.imageCompressor = imageCompressor;
+    this.imageDecodeBudget = imageDecodeBudget;
+    this.imageService = imageService;
+    this.imageReencodeProperties = imageReencodeProperties;
+    this.imageReencodeExecutor = imageReencodeExecutor;
+    this.imageProcessingExecutor = imageProcessingExecutor;
+
+    this.replacedCounter =
+        Counter.builder("images.reencode.replaced")
+            .description("Images swapped for a smaller encoding")
+            .register(meterRegistry);
+    this.keptCounter =
+        Counter.builder("images.reencode.kept")
+            .description("Images kept because the new encoding was not smaller")
+            .register(meterRegistry);
+    this.savedBytesCounter =
+        Counter.builder("images.reencode.saved")
+            .description("Bytes saved on full images by re-encoding")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+  }
+
+  @Scheduled(
+      initialDelayString = "${app.image.reencode.interval:PT30S}",
+      fixedDelayString = "${app.image.reencode.interval:PT30S}")
+  public void reencodeBatch() {
+    if (!imageReencodeProperties.isEnabled()) return;
+    // Uploads come first; their queue is only non-empty when every worker is busy.
+    if (imageProcessingExecutor.getQueueSize() > 0) return;
+    if (!running.compareAndSet(false, true)) return;
+
+    List<Long> ids;
+    try {
+      ids =
+          imageDataRepository.findIdsEncodedWithOtherSettings(
+              imageCompressor.settingsKey(),
+              afterId,
+              Limit.of(imageReencodeProperties.getBatchSize()));
+    } catch (RuntimeException e) {
+      running.set(false);
+      throw e;
+    }
+
+    if (ids.isEmpty()) {
+      // Start over to pick up rows skipped because the decode budget was used up.
+      if (afterId > 0) log.info("Re-encode pass finished");
+      afterId = 0L;
+      running.set(false);
+      return;
+    }
+    afterId = ids.get(ids.size() - 1);
+
+    CompletableFuture.allOf(
+            ids.stream()
+                .map(id -> CompletableFuture.runAsync(() -> reencode(id), imageReencodeExecutor))
+                .toArray(CompletableFuture[]::new))
+        .whenComplete((result, e) -> running.set(false));
+  }
+
+  private void reencode(Long imageDataId) {
+    long reserved = 0;
+    try {
+      byte[] original = imageService.readOriginal(imageDataId);
+      long estimate = imageCompressor.estimateDecodedSize(original);
+      imageDecodeBudget.reserve(estimate);
+      reserved = estimate;
+
+      CompressedImage compressed = imageCompressor.compress(original);
+      long saved = imageService.replaceEncoding(imageDataId, original, compressed);
+      if (saved >= 0) {
+        replacedCounter.increment();
+        savedBytesCounter.increment(saved);
+        log.info("Re-encoded image data {}, {} bytes saved", imageDataId, saved);
+      } else {
+        keptCounter.increment();
+      }
+    } catch (ImageAdmissionException e) {
+      // Not marked, so the next pass tries again.
+      log.debug("No decode budget to re-encode image data {}", imageDataId);
+    } catch (ResourceNotFoundException
+        | UnsupportedImageFormatException
+        | ImageProcessingException e) {
+      imageDataRepository.updateSettingsKey(imageDataId, imageCompressor.settingsKey());
+      log.warn("Keeping the encoding of image data {}: {}", imageDataId, e.getMessage());
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to re-encode image data {}: {}", imageDataId, e.getMessage());
+    } finally {
+      if (reserved > 0) imageDecodeBudget.release(reserved);
+    }
+  }
+}
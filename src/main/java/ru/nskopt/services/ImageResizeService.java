@@ -0,0 +1,133 @@
+package ru.nskopt.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.nskopt.dto.image.ImageMetadata;
+import ru.nskopt.dto.image.ResizeRequest;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.properties.ImageCompressionProperties;
+import ru.nskopt.properties.ImageResizeProperties;
+import ru.nskopt.utils.HashUtils;
+
+/**
+ * Resizes images on demand for requests that no stored rendition satisfies. Results are kept in
+ * {@link ImageDiskCache}, so the source is decoded at most once per snapped size and quality.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ImageResizeService {
+
+  private final ImageService imageService;
+  private final ImageCompressor imageCompressor;
+  private final ImageDiskCache imageDiskCache;
+  private final ImageCompressionProperties imageCompressionProperties;
+  private final ImageResizeProperties imageResizeProperties;
+
+  /**
+   * Applies client hints to the requested dimensions and snaps them to the allowed sizes. {@code
+   * w} and {@code h} are CSS pixels and are multiplied by {@code dpr}; the {@code Width} hint is
+   * already in device pixels. Resized images are encoded in {@code format}.
+   */
+  public ResizeRequest resolve(
+      Integer w,
+      Integer h,
+      Double q,
+      Double dpr,
+      Integer widthHint,
+      boolean saveData,
+      ImageFormat format) {
+    double ratio = dpr != null && dpr > 0 ? dpr : 1;
+
+    Integer width = w != null ? Integer.valueOf((int) Math.ceil(w * ratio)) : widthHint;
+    Integer height = h != null ? Integer.valueOf((int) Math.ceil(h * ratio)) : null;
+
+    width = snap(width);
+    height = snap(height);
+
+    double defaultQuality = imageCompressionProperties.getQuality();
+    double quality = defaultQuality;
+    if (q != null) quality = snapQuality(q);
+    else if (saveData)
+      quality = Math.min(imageResizeProperties.getSaveDataQuality(), defaultQuality);
+
+    boolean standard =
+        (height == null || height.equals(width)) && Double.compare(quality, defaultQuality) == 0;
+
+    return new ResizeRequest(width, height, quality, standard, format);
+  }
+
+  /** Strong validator for the resized image, derived without producing it. */
+  public String etag(ImageMetadata full, ResizeRequest request) {
+    return full.getContentHash() == null
+        ? null
+        : HashUtils.sha256(
+            (full.getContentHash() + ":" + cacheKey(full, request) + ":" + request.format())
+                .getBytes(StandardCharsets.UTF_8));
+  }
+
+  public void writeResized(ImageMetadata full, ResizeRequest request, OutputStream outputStream)
+      throws IOException {
+    String key = cacheKey(full, request);
+    if (imageDiskCache.copyTo(key, request.format(), outputStream)) return;
+
+    int size = imageCompressionProperties.getSize();
+    int width = request.width() != null ? request.width() : size;
+    int height = request.height() != null ? request.height() : width;
+
+    byte[] resized =
+        imageCompressor.resize(
+            imageService.readImageData(full.getId()),
+            width,
+            height,
+            request.quality(),
+            request.format());
+    imageDiskCache.put(key, request.format(), resized);
+
+    log.info(
+        "Resized image {} to {}x{} q{} {}",
+        full.getId(),
+        width,
+        height,
+        request.quality(),
+        request.format().getFormatName());
+
+    outputStream.write(resized);
+  }
+
+  /**
+   * Key of the resized image in {@link ImageDiskCache}, which adds the format. Keyed by image data,
+   * so images sharing their data share the cached sizes too.
+   */
+  private String cacheKey(ImageMetadata full, ResizeRequest request) {
+    String version =
+        full.getContentHash() != null ? full.getContentHash().substring(0, 12) : "unversioned";
+    return String.format(
+        Locale.ROOT,
+        "%d-%s-%sx%s-q%d",
+        full.getImageDataId(),
+        version,
+        request.width() != null ? request.width() : "full",
+        request.height() != null ? request.height() : "auto",
+        Math.round(request.quality() * 100));
+  }
+
+  private Integer snap(Integer value) {
+    if (value == null || value <= 0) return null;
+
+    int max = imageCompressionProperties.getSize();
+    return imageResizeProperties.getSizes().stream()
+        .filter(size -> size >= value && size < max)
+        .min(Integer::compare)
+        .orElse(max);
+  }
+
+  private static double snapQuality(double quality) {
+    return Math.max(1, Math.min(10, Math.round(quality * 10))) / 10.0;
+  }
+}
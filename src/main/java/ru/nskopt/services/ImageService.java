@@ -1,56 +1,312 @@
 package ru.nskopt.services;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import net.coobird.thumbnailator.Thumbnails;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import ru.nskopt.dto.image.CompressedImage;
+import ru.nskopt.dto.image.EncodedImage;
+import ru.nskopt.dto.image.ImageMetadata;
+import ru.nskopt.dto.image.ImagePreview;
+import ru.nskopt.dto.image.ImageRenditionMetadata;
+import ru.nskopt.dto.image.ImageUploadResponse;
 import ru.nskopt.entities.image.Image;
+import ru.nskopt.entities.image.ImageData;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.entities.image.ImageRendition;
+import ru.nskopt.entities.image.ImageStatus;
+import ru.nskopt.entities.image.ImageStorageType;
+import ru.nskopt.events.ImageDataReleasedEvent;
+import ru.nskopt.events.ImageProcessedEvent;
+import ru.nskopt.events.ImageUploadedEvent;
+import ru.nskopt.exceptions.ImageAdmissionException;
+import ru.nskopt.exceptions.ImageProcessingException;
 import ru.nskopt.exceptions.ResourceNotFoundException;
+import ru.nskopt.exceptions.UnsupportedImageFormatException;
 import ru.nskopt.properties.ImageCompressionProperties;
+import ru.nskopt.repositories.ImageDataRepository;
+import ru.nskopt.repositories.ImageRenditionRepository;
 import ru.nskopt.repositories.ImageRepository;
+import ru.nskopt.storage.ImageStorage;
+import ru.nskopt.storage.ImageStorages;
+import ru.nskopt.utils.HashUtils;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ImageService {
 
-  private final ImageCompressionProperties imageCompressionProperties;
-
   private final ImageRepository imageRepository;
+  private final ImageDataRepository imageDataRepository;
+  private final ImageRenditionRepository imageRenditionRepository;
+  private final ImageStorages imageStorages;
+
+  private final ImageMemoryCache imageMemoryCache;
+  private final ImageCompressor imageCompressor;
+  private final ImageDecodeBudget imageDecodeBudget;
+  private final ImageFormatNegotiator imageFormatNegotiator;
+  private final ImageCompressionProperties imageCompressionProperties;
+  private final ApplicationEventPublisher eventPublisher;
 
+  /**
+   * Stores the uploaded original and returns immediately; compression runs in {@link
+   * ImageProcessingService} once the transaction commits. Uploads identical to an earlier one reuse
+   * its data and are not processed again.
+   *
+   * <p>The upload is read as a stream: hashed, probed from its header and, unless the storage is
+   * the database, copied into storage without ever being held in memory whole.
+   */
+  @Transactional
   public Image saveImage(MultipartFile file) throws IOException {
-    Image image = new Image();
-    image.setData(compressImage(file.getBytes()));
-    imageRepository.save(image);
+    Upload upload = save(List.of(file)).get(0);
+    if (upload.error() != null) throw upload.error();
+
+    return upload.image();
+  }
+
+  /**
+   * Same as {@link #saveImage} for many uploads at once: the rows are inserted in JDBC batches
+   * and compressed in parallel after the commit. Returns one entry per source, in order; sources
+   * that cannot be accepted are reported in their entry without failing the others.
+   */
+  @Transactional
+  public List<ImageUploadResponse> saveImages(List<MultipartFile> sources) throws IOException {
+    return save(sources).stream()
+        .map(
+            upload ->
+                upload.error() == null
+                    ? new ImageUploadResponse(upload.image().getId(), null)
+                    : new ImageUploadResponse(null, upload.error().getMessage()))
+        .toList();
+  }
+
+  private record Upload(Image image, RuntimeException error) {}
+
+  private List<Upload> save(List<MultipartFile> sources) throws IOException {
+    if (sources.isEmpty()) return List.of();
+
+    List<String> sourceKeys = new ArrayList<>(sources.size());
+    for (MultipartFile source : sources) sourceKeys.add(imageCompressor.sourceKey(source));
+
+    Map<String, ImageData> imageDataByKey = new HashMap<>();
+    for (ImageDataRepository.SourceKeyId existing :
+        imageDataRepository.findIdsBySourceKeys(new HashSet<>(sourceKeys)))
+      imageDataByKey.put(
+          existing.getSourceKey(), imageDataRepository.getReferenceById(existing.getId()));
+
+    ImageStorage storage = imageStorages.getDefault();
+    List<Upload> uploads = new ArrayList<>(sources.size());
+    List<Image> images = new ArrayList<>(sources.size());
+    List<ImageData> created = new ArrayList<>();
+    List<MultipartFile> createdSources = new ArrayList<>();
+    List<Long> createdEstimates = new ArrayList<>();
+
+    // Reservations are released here on any failure until they are assigned to their rows, which
+    // release them themselves if the transaction rolls back.
+    try {
+      for (int i = 0; i < sources.size(); i++) {
+        Image image = new Image();
+        ImageData existing = imageDataByKey.get(sourceKeys.get(i));
+
+        if (existing != null) {
+          image.setImageData(existing);
+        } else {
+          try {
+            long estimate = imageCompressor.estimateDecodedSize(sources.get(i));
+            imageDecodeBudget.reserve(estimate);
+            createdEstimates.add(estimate);
+          } catch (UnsupportedImageFormatException
+              | ImageProcessingException
+              | ImageAdmissionException e) {
+            uploads.add(new Upload(null, e));
+            continue;
+          }
+
+          ImageData imageData = image.getImageData();
+          imageData.setSourceKey(sourceKeys.get(i));
+          imageData.setStatus(ImageStatus.PROCESSING);
+          imageData.setStorage(storage.type());
+          // Stored with the row itself, so it goes out in the same insert batch.
+          if (storage.type() == ImageStorageType.DATABASE)
+            imageData.setOriginal(sources.get(i).getBytes());
+
+          imageDataByKey.put(sourceKeys.get(i), imageData);
+          created.add(imageData);
+          createdSources.add(sources.get(i));
+        }
+        images.add(image);
+        uploads.add(new Upload(image, null));
+      }
+
+      imageRepository.saveAll(images);
+    } catch (IOException | RuntimeException e) {
+      createdEstimates.forEach(imageDecodeBudget::release);
+      throw e;
+    }
+
+    for (int i = 0; i < created.size(); i++)
+      imageDecodeBudget.assign(created.get(i).getId(), createdEstimates.get(i));
+
+    for (int i = 0; i < created.size(); i++) {
+      Long imageDataId = created.get(i).getId();
+      if (storage.type() != ImageStorageType.DATABASE)
+        try (InputStream inputStream = createdSources.get(i).getInputStream()) {
+          storage.write(imageDataId, ImageStorage.ORIGINAL, inputStream);
+        }
+
+      eventPublisher.publishEvent(new ImageUploadedEvent(imageDataId));
+    }
 
     log.info(
-        "Save new image with ID {} size {} kB",
-        image.getId(),
-        String.format("%.2f", (double) image.getData().length / 1000));
+        "Save {} new images, {} kB of originals queued for processing, {} reusing image data",
+        images.size(),
+        String.format(
+            "%.2f",
+            (double) createdSources.stream().mapToLong(MultipartFile::getSize).sum() / 1000),
+        images.size() - created.size());
 
-    return image;
+    return uploads;
   }
 
-  private byte[] compressImage(byte[] data) throws IOException {
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    Thumbnails.of(new ByteArrayInputStream(data))
-        .size(1000, 1000)
-        .keepAspectRatio(false)
-        .outputFormat("webp")
-        .outputQuality(imageCompressionProperties.getQuality())
-        .toOutputStream(outputStream);
+  /** Stores the result of compressing an upload and marks its data as ready to be served. */
+  @Transactional
+  public void completeProcessing(Long imageDataId, CompressedImage compressed)
+      throws IOException {
+    ImageData imageData = imageDataRepository.getReferenceById(imageDataId);
+    ImageStorage storage = imageStorages.get(imageDataRepository.findStorageById(imageDataId));
+
+    imageRenditionRepository.deleteByImageDataId(imageDataId);
+    List<EncodedImage> encodings = new ArrayList<>(compressed.renditions());
+    encodings.addAll(compressed.alternates());
+    for (EncodedImage encoded : encodings) {
+      ImageRendition rendition = new ImageRendition();
+      rendition.setImageData(imageData);
+      rendition.setName(encoded.name());
+      rendition.setFormat(encoded.format());
+      rendition.setWidth(encoded.width());
+      rendition.setHeight(encoded.height());
+      rendition.setDataSize(encoded.data().length);
+      rendition.setContentHash(HashUtils.sha256(encoded.data()));
+      imageRenditionRepository.save(rendition);
+      storage.write(
+          imageDataId, ImageStorage.variant(encoded.name(), encoded.format()), encoded.data());
+    }
+
+    EncodedImage full = compressed.full();
+    storage.write(imageDataId, ImageCompressor.FULL, full.data());
+    imageDataRepository.completeProcessing(
+        imageDataId,
+        HashUtils.sha256(full.data()),
+        full.data().length,
+        full.width(),
+        full.height(),
+        compressed.placeholder(),
+        imageCompressor.settingsKey());
+    eventPublisher.publishEvent(new ImageProcessedEvent(imageDataId));
+  }
+
+  /**
+   * Swaps image data for a new encoding of the same original if the new full image is smaller.
+   * The new encoding goes into a fresh row and every image is pointed at it in one statement, so
+   * readers see either the old encoding or the new one; the old row is then released.
+   *
+   * @return bytes saved on the full image, {@code -1} if the old encoding was kept
+   */
+  @Transactional
+  public long replaceEncoding(Long imageDataId, byte[] original, CompressedImage compressed)
+      throws IOException {
+    Integer dataSize = imageDataRepository.findDataSizeById(imageDataId);
+    long currentSize =
+        dataSize != null
+            ? dataSize
+            : imageStorages
+                .get(imageDataRepository.findStorageById(imageDataId))
+                .size(imageDataId, ImageCompressor.FULL);
+
+    long newSize = compressed.full().data().length;
+    if (currentSize >= 0 && newSize >= currentSize) {
+      imageDataRepository.updateSettingsKey(imageDataId, imageCompressor.settingsKey());
+      return -1;
+    }
+
+    ImageStorage storage = imageStorages.getDefault();
+    ImageData replacement = new ImageData();
+    replacement.setSourceKey(imageCompressor.sourceKey(original));
+    replacement.setStatus(ImageStatus.PROCESSING);
+    replacement.setStorage(storage.type());
+    if (storage.type() == ImageStorageType.DATABASE) replacement.setOriginal(original);
+    Long replacementId = imageDataRepository.saveAndFlush(replacement).getId();
+
+    if (storage.type() != ImageStorageType.DATABASE)
+      storage.write(replacementId, ImageStorage.ORIGINAL, original);
+    completeProcessing(replacementId, compressed);
+
+    imageRepository.replaceImageData(imageDataId, replacementId);
+    releaseUnreferencedData(List.of(imageDataId));
+    return currentSize >= 0 ? currentSize - newSize : 0;
+  }
+
+  /** Loads the uploaded original of an image data row, for compressing it. */
+  @Transactional(readOnly = true)
+  public byte[] readOriginal(Long imageDataId) throws IOException {
+    ImageStorage storage = imageStorages.get(imageDataRepository.findStorageById(imageDataId));
+
+    // Sized up front, so the buffer is not regrown and copied while the original is read.
+    long size = storage.size(imageDataId, ImageStorage.ORIGINAL);
+    ByteArrayOutputStream outputStream =
+        new ByteArrayOutputStream(size > 0 && size < Integer.MAX_VALUE ? (int) size : 32);
+    if (!storage.copyTo(imageDataId, ImageStorage.ORIGINAL, outputStream))
+      throw new ResourceNotFoundException("Image data not found " + imageDataId);
 
     return outputStream.toByteArray();
   }
 
+  /**
+   * Removes those of the given image data rows that are no longer referenced by any image, such as
+   * the data of images just deleted. Stored bytes and cached copies are dropped by the {@link
+   * ImageDataReleasedEvent} listeners once the deletion commits.
+   */
+  @Transactional
+  public void releaseUnreferencedData(Collection<Long> imageDataIds) {
+    Set<Long> candidates =
+        imageDataIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+    if (candidates.isEmpty()) return;
+
+    imageDataRepository.flush();
+    release(imageDataRepository.findUnreferencedIds(candidates));
+  }
+
+  private void release(List<Long> ids) {
+    if (ids.isEmpty()) return;
+
+    List<String> contentHashes = imageDataRepository.findContentHashes(ids);
+    int deleted = imageDataRepository.deleteUnreferenced(ids);
+
+    // Rows picked up again by a concurrent upload in the meantime are still in use.
+    List<Long> released = new ArrayList<>(ids);
+    released.removeAll(imageDataRepository.findExistingIds(ids));
+    eventPublisher.publishEvent(new ImageDataReleasedEvent(released, contentHashes));
+
+    log.info("Released {} unreferenced image data rows", deleted);
+  }
+
   @Transactional(readOnly = true)
   public Image getImage(Long id) {
     return imageRepository
@@ -59,8 +315,228 @@ public class ImageService {
   }
 
   @Transactional(readOnly = true)
-  public byte[] getImageData(Long id) {
-    return getImage(id).getData();
+  public ImageMetadata getImageMetadata(Long id) {
+    return imageRepository
+        .findMetadataById(id)
+        .orElseThrow(() -> new ResourceNotFoundException("Image not found " + id));
+  }
+
+  /**
+   * Returns the metadata of the smallest rendition at least {@code width} pixels wide, or of the
+   * full image if there is no such rendition or no width is requested, in the format {@link
+   * ImageFormatNegotiator} picks among the {@code acceptable} ones.
+   */
+  @Transactional(readOnly = true)
+  public ImageMetadata selectRendition(
+      ImageMetadata metadata, Integer width, Set<ImageFormat> acceptable) {
+    return selectRendition(
+        metadata,
+        width,
+        acceptable,
+        imageRenditionRepository.findMetadataByImageId(metadata.getId()));
+  }
+
+  /**
+   * Same as {@link #selectRendition} for many images at once, with one query for the images and
+   * one for their renditions. Returns one entry per id, in order; images that are not {@link
+   * #isServable servable} are returned as they are.
+   */
+  @Transactional(readOnly = true)
+  public List<ImageMetadata> selectRenditions(
+      List<Long> ids, Integer width, Set<ImageFormat> acceptable) {
+    Map<Long, ImageMetadata> metadataById =
+        imageRepository.findMetadataByIds(new HashSet<>(ids)).stream()
+            .collect(Collectors.toMap(ImageMetadata::getId, metadata -> metadata));
+
+    List<Long> notFoundIds = ids.stream().filter(id -> !metadataById.containsKey(id)).toList();
+    if (!notFoundIds.isEmpty())
+      throw new ResourceNotFoundException("Image not found " + notFoundIds);
+
+    Set<Long> imageDataIds =
+        metadataById.values().stream()
+            .map(ImageMetadata::getImageDataId)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+    Map<Long, List<ImageRenditionMetadata>> renditionsByDataId =
+        imageDataIds.isEmpty()
+            ? Map.of()
+            : imageRenditionRepository.findMetadataByImageDataIds(imageDataIds).stream()
+                .collect(Collectors.groupingBy(ImageRenditionMetadata::getImageDataId));
+
+    return ids.stream()
+        .map(metadataById::get)
+        .map(
+            metadata ->
+                isServable(metadata)
+                    ? selectRendition(
+                        metadata,
+                        width,
+                        acceptable,
+                        renditionsByDataId.getOrDefault(metadata.getImageDataId(), List.of()))
+                    : metadata)
+        .toList();
+  }
+
+  /** Whether the image has been processed and its bytes can be sent. */
+  public static boolean isServable(ImageMetadata metadata) {
+    return metadata.getStatus() != ImageStatus.PROCESSING
+        && metadata.getStatus() != ImageStatus.FAILED;
+  }
+
+  private ImageMetadata selectRendition(
+      ImageMetadata metadata,
+      Integer width,
+      Set<ImageFormat> acceptable,
+      List<ImageRenditionMetadata> renditions) {
+    String name =
+        width == null || (metadata.getWidth() != null && width >= metadata.getWidth())
+            ? ImageCompressor.FULL
+            : renditions.stream()
+                .filter(rendition -> !ImageCompressor.FULL.equals(rendition.getName()))
+                .filter(rendition -> rendition.getWidth() >= width)
+                .findFirst()
+                .map(ImageRenditionMetadata::getName)
+                .orElse(ImageCompressor.FULL);
+
+    List<ImageMetadata> encodings = new ArrayList<>();
+    if (ImageCompressor.FULL.equals(name)) encodings.add(metadata);
+    renditions.stream()
+        .filter(rendition -> name.equals(rendition.getName()))
+        .map(rendition -> withRendition(metadata, rendition))
+        .forEach(encodings::add);
+
+    return imageFormatNegotiator.choose(encodings, acceptable);
+  }
+
+  /** Resolves a rendition name such as {@code thumb} to its width, {@code null} for the full. */
+  public Integer getRenditionWidth(String name) {
+    if (ImageCompressor.FULL.equals(name)) return null;
+
+    Integer width = imageCompressionProperties.getRenditions().get(name);
+    if (width == null) throw new ResourceNotFoundException("Image size not found " + name);
+
+    return width;
+  }
+
+  /** Writes the image bytes, from {@link ImageMemoryCache} when they are hot. */
+  @Transactional(readOnly = true)
+  public void writeImageData(ImageMetadata metadata, OutputStream outputStream)
+      throws IOException {
+    imageMemoryCache.writeTo(
+        metadata.getContentHash(), outputStream, out -> copyImageData(metadata, out));
+  }
+
+  /** Size of the image bytes. */
+  @Transactional(readOnly = true)
+  public long getImageLength(ImageMetadata metadata) throws IOException {
+    byte[] cached = imageMemoryCache.getIfPresent(metadata.getContentHash());
+    if (cached != null) return cached.length;
+
+    long length =
+        metadata.getImageDataId() != null
+            ? imageStorages
+                .get(metadata.getStorage())
+                .size(metadata.getImageDataId(), variant(metadata))
+            : -1;
+    if (length < 0) throw new ResourceNotFoundException("Image not found " + metadata.getId());
+
+    return length;
+  }
+
+  /** Writes {@code length} bytes of the image starting at {@code offset}. */
+  @Transactional(readOnly = true)
+  public void writeImageData(
+      ImageMetadata metadata, long offset, long length, OutputStream outputStream)
+      throws IOException {
+    byte[] cached = imageMemoryCache.getIfPresent(metadata.getContentHash());
+    if (cached != null) {
+      outputStream.write(cached, (int) offset, (int) Math.min(length, cached.length - offset));
+      return;
+    }
+
+    boolean found =
+        metadata.getImageDataId() != null
+            && imageStorages
+                .get(metadata.getStorage())
+                .copyTo(metadata.getImageDataId(), variant(metadata), offset, length, outputStream);
+
+    if (!found) throw new ResourceNotFoundException("Image not found " + metadata.getId());
+  }
+
+  /** Local file with the image bytes when its storage keeps one, so it can be sent as is. */
+  public Optional<Path> getImageFile(ImageMetadata metadata) {
+    if (metadata.getImageDataId() == null) return Optional.empty();
+
+    return imageStorages
+        .get(metadata.getStorage())
+        .localFile(metadata.getImageDataId(), variant(metadata));
+  }
+
+  private void copyImageData(ImageMetadata metadata, OutputStream outputStream)
+      throws IOException {
+    boolean found =
+        metadata.getImageDataId() != null
+            && imageStorages
+                .get(metadata.getStorage())
+                .copyTo(metadata.getImageDataId(), variant(metadata), outputStream);
+
+    if (!found) throw new ResourceNotFoundException("Image not found " + metadata.getId());
+  }
+
+  private static String variant(ImageMetadata metadata) {
+    return ImageStorage.variant(
+        metadata.getRendition() != null ? metadata.getRendition() : ImageCompressor.FULL,
+        metadata.getFormat());
+  }
+
+  private static ImageMetadata withRendition(
+      ImageMetadata metadata, ImageRenditionMetadata rendition) {
+    return new ImageMetadata(
+        metadata.getId(),
+        metadata.getImageDataId(),
+        rendition.getContentHash(),
+        metadata.getStatus(),
+        rendition.getWidth(),
+        metadata.getStorage(),
+        rendition.getDataSize(),
+        rendition.getName(),
+        rendition.getFormat() != null ? rendition.getFormat() : ImageFormat.PRIMARY);
+  }
+
+  /** Loads the full image into memory, for callers that have to decode it. */
+  @Transactional(readOnly = true)
+  public byte[] readImageData(Long id) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    writeImageData(getImageMetadata(id), outputStream);
+    return outputStream.toByteArray();
+  }
+
+  /** Dimensions and placeholders of the images, by image id, for embedding in catalog responses. */
+  @Transactional(readOnly = true)
+  public Map<Long, ImagePreview> getPreviews(Collection<Long> ids) {
+    if (ids.isEmpty()) return Map.of();
+
+    return imageRepository.findPreviewsByIds(ids).stream()
+        .collect(Collectors.toMap(ImagePreview::getId, preview -> preview));
+  }
+
+  /** Image data of the images, for releasing it once they are detached or deleted. */
+  public List<Long> getImageDataIds(Collection<Image> images) {
+    return images.stream()
+        .map(Image::getImageData)
+        .filter(Objects::nonNull)
+        .map(ImageData::getId)
+        .toList();
+  }
+
+  @Transactional(readOnly = true)
+  public List<Long> getImageDataIdsByProductIds(Collection<Long> productIds) {
+    return imageRepository.findImageDataIdsByProductIds(productIds);
+  }
+
+  @Transactional(readOnly = true)
+  public List<Long> getImageDataIdsByCategoryId(Long categoryId) {
+    return imageRepository.findImageDataIdsByCategoryId(categoryId);
   }
 
   public List<Image> getImagesByIds(List<Long> ids) {
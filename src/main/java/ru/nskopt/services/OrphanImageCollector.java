@@ -0,0 +1,76 @@
+package ru.nskopt.services;
+
+import java.time.Instant;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.nskopt.dto.image.OrphanImageReport;
+import ru.nskopt.properties.OrphanImageProperties;
+import ru.nskopt.repositories.ImageRepository;
+
+/**
+ * Deletes images that were uploaded but never attached to a product or category, or were
+ * detached from them, once they are older than a grace period. The image data of each batch of
+ * deleted images, and its stored bytes, is released when no other image uses it.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OrphanImageCollector {
+
+  private final ImageRepository imageRepository;
+  private final ImageService imageService;
+  private final OrphanImageProperties orphanImageProperties;
+  private final TransactionTemplate transactionTemplate;
+
+  /** Counts what {@link #collect()} would delete, without deleting anything. */
+  @Transactional(readOnly = true)
+  public OrphanImageReport report() {
+    Instant createdBefore = createdBefore();
+    ImageRepository.OrphanCounts counts = imageRepository.countOrphans(createdBefore);
+    return new OrphanImageReport(
+        createdBefore, counts.getImages(), counts.getImageData(), counts.getBytes());
+  }
+
+  @Scheduled(
+      initialDelayString = "${app.image.orphans.interval:PT1H}",
+      fixedDelayString = "${app.image.orphans.interval:PT1H}")
+  public void collectOnSchedule() {
+    if (orphanImageProperties.isEnabled()) collect();
+  }
+
+  /**
+   * Deletes every orphaned image past the grace period, one batch per transaction.
+   *
+   * @return number of images deleted
+   */
+  public int collect() {
+    Instant createdBefore = createdBefore();
+    int batchSize = orphanImageProperties.getBatchSize();
+    int total = 0;
+    int deleted;
+
+    do {
+      // Each batch commits on its own, so locks are held briefly and progress is kept.
+      deleted =
+          transactionTemplate.execute(
+              status -> {
+                List<Long> imageDataIds = imageRepository.deleteOrphans(createdBefore, batchSize);
+                imageService.releaseUnreferencedData(imageDataIds);
+                return imageDataIds.size();
+              });
+      total += deleted;
+    } while (deleted == batchSize);
+
+    if (total > 0) log.info("Collected {} orphaned images", total);
+    return total;
+  }
+
+  private Instant createdBefore() {
+    return Instant.now().minus(orphanImageProperties.getGracePeriod());
+  }
+}
@@ -1,22 +1,35 @@
 package ru.nskopt.services;
 
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.nskopt.dto.product.ProductAdminResponse;
+import ru.nskopt.dto.product.ProductCursor;
+import ru.nskopt.dto.product.ProductPage;
+import ru.nskopt.dto.product.ProductSort;
 import ru.nskopt.dto.product.ProductUpdateRequest;
 import ru.nskopt.dto.product.ProductUserResponse;
 import ru.nskopt.entities.Category;
 import ru.nskopt.entities.Product;
 import ru.nskopt.entities.image.Image;
+import ru.nskopt.events.CatalogChangedEvent;
 import ru.nskopt.exceptions.ResourceNotFoundException;
 import ru.nskopt.mappers.ProductMapper;
+import ru.nskopt.repositories.CatalogReadRepository;
 import ru.nskopt.repositories.CategoryRepository;
 import ru.nskopt.repositories.ProductRepository;
+import ru.nskopt.services.CatalogCache.Region;
 
 @Slf4j
 @Service
@@ -26,38 +39,93 @@ public class ProductService {
   private final ProductRepository productRepository;
   private final CategoryRepository categoryRepository;
 
+  private final CatalogReadRepository catalogReadRepository;
+
   private final ImageService imageService;
   private final ProductMapper productMapper;
+  private final CatalogCache catalogCache;
+  private final CatalogSnapshotService catalogSnapshotService;
+  private final ApplicationEventPublisher eventPublisher;
+
+  private record PageKey(ProductSort sort, Sort.Direction direction, String cursor, int limit) {}
+
+  // Cached reads open no transaction, so a cache hit needs no connection. Each of their queries
+  // fetches everything it maps, nothing is loaded lazily afterwards. User reads are served from
+  // the catalog snapshot instead when it is enabled.
+
+  public ProductPage<ProductUserResponse> findAll(
+      ProductSort sort, Sort.Direction direction, String cursor, int limit) {
+    CatalogSnapshot snapshot = catalogSnapshotService.current();
+    if (snapshot != null) {
+      ProductCursor after = cursor != null ? ProductCursor.decode(cursor, sort, direction) : null;
+      return snapshot.findPage(sort, direction, after, limit);
+    }
 
-  @Transactional(readOnly = true)
-  public List<ProductUserResponse> findAll() {
-    return productRepository.findAll().stream().map(productMapper::toUserResponse).toList();
+    return catalogCache.get(
+        Region.PRODUCT_PAGES,
+        new PageKey(sort, direction, cursor, limit),
+        () -> {
+          ProductPage<Long> page = findPage(sort, direction, cursor, limit);
+          return new ProductPage<>(
+              inOrder(
+                  page.getItems(),
+                  catalogReadRepository.findProductsByIds(page.getItems()),
+                  ProductUserResponse::getId),
+              page.getNextCursor());
+        });
   }
 
-  @Transactional(readOnly = true)
   public ProductUserResponse findById(Long id) {
-    return productMapper.toUserResponse(
-        productRepository
-            .findById(id)
-            .orElseThrow(() -> new ResourceNotFoundException("Product not found " + id)));
+    CatalogSnapshot snapshot = catalogSnapshotService.current();
+    if (snapshot != null)
+      return snapshot
+          .findProduct(id)
+          .orElseThrow(() -> new ResourceNotFoundException("Product not found " + id));
+
+    return catalogCache.get(
+        Region.PRODUCTS,
+        id,
+        () ->
+            catalogReadRepository
+                .findProductById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Product not found " + id)));
   }
 
-  @Transactional(readOnly = true)
-  public List<ProductAdminResponse> findAllAdmin() {
-    return productRepository.findAll().stream().map(productMapper::toAdminResponse).toList();
+  public ProductPage<ProductAdminResponse> findAllAdmin(
+      ProductSort sort, Sort.Direction direction, String cursor, int limit) {
+    return catalogCache.get(
+        Region.PRODUCT_PAGES_ADMIN,
+        new PageKey(sort, direction, cursor, limit),
+        () -> {
+          ProductPage<Long> page = findPage(sort, direction, cursor, limit);
+          List<Product> products =
+              page.getItems().isEmpty()
+                  ? List.of()
+                  : productRepository.findWithImagesByIdIn(page.getItems());
+          return new ProductPage<>(
+              inOrder(page.getItems(), products, Product::getId).stream()
+                  .map(productMapper::toAdminResponse)
+                  .toList(),
+              page.getNextCursor());
+        });
   }
 
-  @Transactional(readOnly = true)
   public ProductAdminResponse findByIdAdmin(Long id) {
-    return productMapper.toAdminResponse(
-        productRepository
-            .findById(id)
-            .orElseThrow(() -> new ResourceNotFoundException("Product not found " + id)));
+    return catalogCache.get(
+        Region.PRODUCTS_ADMIN,
+        id,
+        () ->
+            productMapper.toAdminResponse(
+                productRepository
+                    .findWithImagesById(id)
+                    .orElseThrow(() -> new ResourceNotFoundException("Product not found " + id))));
   }
 
   public ProductUserResponse save(ProductUpdateRequest request) {
     log.info("Save {}", request);
-    return productMapper.toUserResponse(productRepository.save(productMapper.toProduct(request)));
+    Product product = productRepository.save(productMapper.toProduct(request));
+    catalogChanged(List.of(product.getId()), List.of());
+    return toUserResponse(product);
   }
 
   public ProductUserResponse update(Long id, ProductUpdateRequest updateProductRequest) {
@@ -67,14 +135,20 @@ public class ProductService {
             .orElseThrow(() -> new ResourceNotFoundException("Product not found " + id));
     productMapper.updateProductFromRequest(updateProductRequest, existingProduct);
     log.info("Updating product with ID {}: {}", id, existingProduct);
-    return productMapper.toUserResponse(productRepository.save(existingProduct));
+    Product product = productRepository.save(existingProduct);
+    catalogChanged(List.of(id), productRepository.findCategoryIdsByIdIn(List.of(id)));
+    return toUserResponse(product);
   }
 
   public void deleteById(Long id) {
     if (!productRepository.existsById(id))
       throw new ResourceNotFoundException("Product not found " + id);
     log.info("Delete product with id {}", id);
+    List<Long> categoryIds = productRepository.findCategoryIdsByIdIn(List.of(id));
+    List<Long> imageDataIds = imageService.getImageDataIdsByProductIds(List.of(id));
     productRepository.deleteById(id);
+    catalogChanged(List.of(id), categoryIds);
+    imageService.releaseUnreferencedData(imageDataIds);
   }
 
   @Transactional
@@ -84,6 +158,8 @@ public class ProductService {
             .findById(productId)
             .orElseThrow(() -> new ResourceNotFoundException("Product not found " + productId));
 
+    Set<Long> changedCategoryIds = new HashSet<>(categoryIds);
+    product.getCategories().forEach(category -> changedCategoryIds.add(category.getId()));
     product.getCategories().clear();
 
     if (categoryIds.isEmpty()) log.info("Removed all categories for product ID {}", productId);
@@ -101,6 +177,7 @@ public class ProductService {
             .collect(Collectors.toSet());
     product.getCategories().addAll(categories);
     productRepository.save(product);
+    catalogChanged(List.of(), changedCategoryIds);
 
     log.info("Updated categories for product ID {}: {}", productId, categoryIds);
   }
@@ -113,19 +190,70 @@ public class ProductService {
             .orElseThrow(() -> new ResourceNotFoundException("Product not found " + productId));
 
     List<Image> images = imageService.getImagesByIds(imageIds);
+    List<Long> detachedImageDataIds = imageService.getImageDataIds(product.getImages());
 
     product.getImages().clear();
     product.getImages().addAll(images);
 
     productRepository.save(product);
+    catalogChanged(
+        List.of(productId), product.getCategories().stream().map(Category::getId).toList());
+    imageService.releaseUnreferencedData(detachedImageDataIds);
     log.info("Updated images for product ID {}: {}", productId, imageIds);
   }
 
-  @Transactional(readOnly = true)
+  /**
+   * IDs of the products of the page, with the cursor of the next one. One more position than asked
+   * is read to tell whether another page follows.
+   */
+  private ProductPage<Long> findPage(
+      ProductSort sort, Sort.Direction direction, String cursor, int limit) {
+    ProductCursor after = cursor != null ? ProductCursor.decode(cursor, sort, direction) : null;
+    List<ProductCursor> positions =
+        productRepository.findPositions(sort, direction, after, limit + 1);
+
+    boolean hasNext = positions.size() > limit;
+    if (hasNext) positions = positions.subList(0, limit);
+
+    return new ProductPage<>(
+        positions.stream().map(ProductCursor::id).toList(),
+        hasNext ? positions.get(positions.size() - 1).encode() : null);
+  }
+
+  /** Items in the order of the IDs, skipping those deleted since the IDs were read. */
+  private static <T> List<T> inOrder(List<Long> ids, List<T> items, Function<T, Long> idOf) {
+    Map<Long, T> itemsById = items.stream().collect(Collectors.toMap(idOf, Function.identity()));
+    return ids.stream().map(itemsById::get).filter(Objects::nonNull).toList();
+  }
+
+  private void catalogChanged(Collection<Long> productIds, Collection<Long> categoryIds) {
+    eventPublisher.publishEvent(new CatalogChangedEvent(productIds, List.of(), categoryIds));
+  }
+
+  private ProductUserResponse toUserResponse(Product product) {
+    return productMapper.toUserResponse(
+        product, imageService.getPreviews(imageIds(List.of(product))));
+  }
+
+  /** Ids of the images of all the products, for loading their previews in one query. */
+  private static List<Long> imageIds(Collection<Product> products) {
+    return products.stream()
+        .flatMap(product -> product.getImages().stream())
+        .map(Image::getId)
+        .toList();
+  }
+
   public List<Long> getImagesIds(Long productId) {
+    CatalogSnapshot snapshot = catalogSnapshotService.current();
+    if (snapshot != null)
+      return snapshot
+          .findProduct(productId)
+          .map(product -> List.of(product.getImagesIds()))
+          .orElseThrow(() -> new ResourceNotFoundException("Product not found " + productId));
+
     Product product =
         productRepository
-            .findById(productId)
+            .findWithImagesById(productId)
             .orElseThrow(() -> new ResourceNotFoundException("Product not found " + productId));
 
     return product.getImages().stream().map(Image::getId).toList();
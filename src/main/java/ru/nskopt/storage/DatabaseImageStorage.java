@@ -0,0 +1,166 @@
+package ru.nskopt.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Blob;
+import java.sql.SQLException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.entities.image.ImageStorageType;
+import ru.nskopt.repositories.ImageDataRepository;
+import ru.nskopt.repositories.ImageRenditionRepository;
+import ru.nskopt.services.ImageCompressor;
+
+/**
+ * Keeps image bytes in large objects of {@code images_data} and {@code images_renditions}. Reads
+ * stream the large object in fixed-size chunks, so an image is never materialized on the heap;
+ * they must run inside a transaction.
+ */
+@Component
+@RequiredArgsConstructor
+public class DatabaseImageStorage implements ImageStorage {
+
+  public static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final String SELECT_ORIGINAL = "SELECT original FROM images_data WHERE id = ?";
+
+  private static final String SELECT_FULL = "SELECT data FROM images_data WHERE id = ?";
+
+  private static final String SELECT_RENDITION =
+      "SELECT data FROM images_renditions WHERE image_data_id = ? AND name = ? AND format = ?";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final ImageDataRepository imageDataRepository;
+  private final ImageRenditionRepository imageRenditionRepository;
+
+  @Override
+  public ImageStorageType type() {
+    return ImageStorageType.DATABASE;
+  }
+
+  @Override
+  @Transactional
+  public void write(Long imageDataId, String variant, byte[] data) {
+    switch (variant) {
+      case ORIGINAL -> imageDataRepository.updateOriginal(imageDataId, data);
+      case ImageCompressor.FULL -> imageDataRepository.updateData(imageDataId, data);
+      default ->
+          imageRenditionRepository.updateData(
+              imageDataId, renditionName(variant), renditionFormat(variant), data);
+    }
+  }
+
+  @Override
+  public boolean copyTo(Long imageDataId, String variant, OutputStream outputStream)
+      throws IOException {
+    return withBlob(
+            imageDataId,
+            variant,
+            blob -> {
+              try (InputStream inputStream = blob.getBinaryStream()) {
+                copy(inputStream, outputStream);
+              }
+              return true;
+            })
+        != null;
+  }
+
+  @Override
+  public long size(Long imageDataId, String variant) throws IOException {
+    Long size = withBlob(imageDataId, variant, Blob::length);
+    return size != null ? size : -1;
+  }
+
+  /** Seeks within the large object, so only the requested pages are read. */
+  @Override
+  public boolean copyTo(
+      Long imageDataId, String variant, long offset, long length, OutputStream outputStream)
+      throws IOException {
+    return withBlob(
+            imageDataId,
+            variant,
+            blob -> {
+              long count = Math.min(length, blob.length() - offset);
+              if (count <= 0) return true;
+
+              try (InputStream inputStream = blob.getBinaryStream(offset + 1, count)) {
+                copy(inputStream, outputStream);
+              }
+              return true;
+            })
+        != null;
+  }
+
+  @Override
+  public void delete(Long imageDataId) {
+    // The bytes are deleted together with their rows.
+  }
+
+  /** Runs {@code callback} on the variant's large object, {@code null} if it is not stored. */
+  private <T> T withBlob(Long imageDataId, String variant, BlobCallback<T> callback)
+      throws IOException {
+    String sql =
+        switch (variant) {
+          case ORIGINAL -> SELECT_ORIGINAL;
+          case ImageCompressor.FULL -> SELECT_FULL;
+          default -> SELECT_RENDITION;
+        };
+    Object[] args =
+        sql.equals(SELECT_RENDITION)
+            ? new Object[] {imageDataId, renditionName(variant), renditionFormat(variant).name()}
+            : new Object[] {imageDataId};
+
+    try {
+      return jdbcTemplate.query(
+          sql,
+          rs -> {
+            if (!rs.next()) return null;
+
+            Blob blob = rs.getBlob(1);
+            if (blob == null) return null;
+
+            try {
+              return callback.apply(blob);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            } finally {
+              blob.free();
+            }
+          },
+          args);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Renditions, and the full image in formats other than the primary one, are rows of {@code
+   * images_renditions} keyed by name and format.
+   */
+  private static String renditionName(String variant) {
+    int dot = variant.lastIndexOf('.');
+    return dot < 0 ? variant : variant.substring(0, dot);
+  }
+
+  private static ImageFormat renditionFormat(String variant) {
+    int dot = variant.lastIndexOf('.');
+    return dot < 0 ? ImageFormat.PRIMARY : ImageFormat.fromFormatName(variant.substring(dot + 1));
+  }
+
+  private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) outputStream.write(buffer, 0, read);
+    outputStream.flush();
+  }
+
+  @FunctionalInterface
+  private interface BlobCallback<T> {
+    T apply(Blob blob) throws SQLException, IOException;
+  }
+}
@@ -0,0 +1,140 @@
+package ru.nskopt.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.springframework.stereotype.Component;
+import ru.nskopt.entities.image.ImageStorageType;
+import ru.nskopt.properties.ImageStorageProperties;
+
+/**
+ * Keeps image bytes in files under {@code app.image.storage.directory}, sharded into two levels
+ * of 256 directories by image data ID. Files are written to a temporary name and moved into
+ * place, so readers never see a partial file.
+ */
+@Component
+public class FileSystemImageStorage implements ImageStorage {
+
+  private final Path root;
+
+  public FileSystemImageStorage(ImageStorageProperties imageStorageProperties) {
+    this.root = imageStorageProperties.getDirectory();
+  }
+
+  @Override
+  public ImageStorageType type() {
+    return ImageStorageType.FILESYSTEM;
+  }
+
+  @Override
+  public void write(Long imageDataId, String variant, byte[] data) throws IOException {
+    Path directory = directory(imageDataId);
+    Files.createDirectories(directory);
+
+    Path temp = Files.createTempFile(directory, variant, ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) channel.write(buffer);
+        channel.force(true);
+      }
+      Files.move(temp, file(imageDataId, variant), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /** Streams straight into the temporary file, without holding the data in memory. */
+  @Override
+  public void write(Long imageDataId, String variant, InputStream inputStream)
+      throws IOException {
+    Path directory = directory(imageDataId);
+    Files.createDirectories(directory);
+
+    Path temp = Files.createTempFile(directory, variant, ".tmp");
+    try {
+      Files.copy(inputStream, temp, StandardCopyOption.REPLACE_EXISTING);
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(temp, file(imageDataId, variant), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  @Override
+  public boolean copyTo(Long imageDataId, String variant, OutputStream outputStream)
+      throws IOException {
+    return copyTo(imageDataId, variant, 0, Long.MAX_VALUE, outputStream);
+  }
+
+  @Override
+  public long size(Long imageDataId, String variant) throws IOException {
+    try {
+      return Files.size(file(imageDataId, variant));
+    } catch (NoSuchFileException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Reads only the requested range, without loading the file into memory. The target is a plain
+   * stream wrapped in a channel, so this is a buffered copy through the JVM; zero-copy serving is
+   * left to Tomcat's sendfile in the controller.
+   */
+  @Override
+  public boolean copyTo(
+      Long imageDataId, String variant, long offset, long length, OutputStream outputStream)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(file(imageDataId, variant))) {
+      WritableByteChannel target = Channels.newChannel(outputStream);
+      long end = offset + Math.min(length, channel.size() - offset);
+      long position = offset;
+      while (position < end) position += channel.transferTo(position, end - position, target);
+      outputStream.flush();
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void delete(Long imageDataId) throws IOException {
+    Path directory = directory(imageDataId);
+    if (!Files.exists(directory)) return;
+
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path path : files.sorted(Comparator.reverseOrder()).toList())
+        Files.deleteIfExists(path);
+    }
+  }
+
+  @Override
+  public Optional<Path> localFile(Long imageDataId, String variant) {
+    Path file = file(imageDataId, variant);
+    return Files.isRegularFile(file) ? Optional.of(file) : Optional.empty();
+  }
+
+  private Path directory(Long imageDataId) {
+    return root.resolve(String.format("%02x", (imageDataId >> 8) & 0xff))
+        .resolve(String.format("%02x", imageDataId & 0xff))
+        .resolve(imageDataId.toString());
+  }
+
+  private Path file(Long imageDataId, String variant) {
+    return directory(imageDataId).resolve(variant);
+  }
+}
@@ -0,0 +1,68 @@
+package ru.nskopt.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.entities.image.ImageStorageType;
+
+/**
+ * Where the bytes of an {@link ru.nskopt.entities.image.ImageData} live. Every image data row has
+ * several variants: the uploaded {@link #ORIGINAL}, the {@code full} image and one per rendition,
+ * each in every configured format. Metadata always stays in the database, only the bytes move
+ * between storages.
+ */
+public interface ImageStorage {
+
+  String ORIGINAL = "original";
+
+  /**
+   * Variant holding an encoding: its name, such as {@code full} or {@code thumb}, suffixed with the
+   * format unless it is the primary one.
+   */
+  static String variant(String name, ImageFormat format) {
+    return format == null || format == ImageFormat.PRIMARY
+        ? name
+        : name + "." + format.getFormatName();
+  }
+
+  ImageStorageType type();
+
+  void write(Long imageDataId, String variant, byte[] data) throws IOException;
+
+  /** Same as {@link #write(Long, String, byte[])} for data that is not in memory yet. */
+  default void write(Long imageDataId, String variant, InputStream inputStream)
+      throws IOException {
+    write(imageDataId, variant, inputStream.readAllBytes());
+  }
+
+  /**
+   * Copies a variant to {@code outputStream}.
+   *
+   * @return {@code false} if the variant has not been stored
+   */
+  boolean copyTo(Long imageDataId, String variant, OutputStream outputStream) throws IOException;
+
+  /** Size of a variant in bytes, or {@code -1} if it has not been stored. */
+  long size(Long imageDataId, String variant) throws IOException;
+
+  /**
+   * Copies at most {@code length} bytes of a variant starting at {@code offset}, without reading
+   * the rest of it.
+   *
+   * @return {@code false} if the variant has not been stored
+   */
+  boolean copyTo(
+      Long imageDataId, String variant, long offset, long length, OutputStream outputStream)
+      throws IOException;
+
+  /** Removes every variant of the image data. */
+  void delete(Long imageDataId) throws IOException;
+
+  /** Local file holding the variant, if this storage keeps one, for sendfile-style responses. */
+  default Optional<Path> localFile(Long imageDataId, String variant) {
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,93 @@
+package ru.nskopt.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.nskopt.entities.image.ImageStorageType;
+import ru.nskopt.properties.ImageStorageProperties;
+import ru.nskopt.repositories.ImageDataRepository;
+import ru.nskopt.repositories.ImageRenditionRepository;
+import ru.nskopt.services.ImageCompressor;
+
+/**
+ * Moves images stored in the database to the configured storage when the application is started
+ * with {@code --migrate-image-storage}. Every image is moved in its own transaction, so the
+ * migration can be interrupted and started again; images that fail are logged and skipped.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ImageStorageMigrationRunner implements ApplicationRunner {
+
+  public static final String OPTION = "migrate-image-storage";
+
+  private final ImageStorages imageStorages;
+  private final ImageStorageProperties imageStorageProperties;
+  private final ImageDataRepository imageDataRepository;
+  private final ImageRenditionRepository imageRenditionRepository;
+  private final TransactionTemplate transactionTemplate;
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (!args.containsOption(OPTION)) return;
+
+    ImageStorage target = imageStorages.getDefault();
+    if (target.type() == ImageStorageType.DATABASE) {
+      log.warn("Image storage is set to {}, nothing to migrate", target.type());
+      return;
+    }
+
+    int moved = 0;
+    int failed = 0;
+    Long afterId = 0L;
+    List<Long> ids;
+    Limit batch = Limit.of(imageStorageProperties.getMigrationBatchSize());
+
+    while (!(ids = imageDataRepository.findIdsStoredInDatabase(afterId, batch)).isEmpty()) {
+      for (Long id : ids) {
+        try {
+          transactionTemplate.executeWithoutResult(status -> move(id, target));
+          moved++;
+        } catch (RuntimeException e) {
+          failed++;
+          log.warn("Failed to move image data {} to {}: {}", id, target.type(), e.getMessage());
+        }
+      }
+      afterId = ids.get(ids.size() - 1);
+      log.info("Moved {} images to {} storage, {} failed", moved, target.type(), failed);
+    }
+  }
+
+  private void move(Long imageDataId, ImageStorage target) {
+    ImageStorage source = imageStorages.get(ImageStorageType.DATABASE);
+
+    List<String> variants = new ArrayList<>();
+    variants.add(ImageStorage.ORIGINAL);
+    variants.add(ImageCompressor.FULL);
+    imageRenditionRepository.findMetadataByImageDataId(imageDataId).stream()
+        .map(rendition -> ImageStorage.variant(rendition.getName(), rendition.getFormat()))
+        .forEach(variants::add);
+
+    try {
+      for (String variant : variants) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (source.copyTo(imageDataId, variant, outputStream))
+          target.write(imageDataId, variant, outputStream.toByteArray());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    imageDataRepository.moveToStorage(imageDataId, target.type());
+    imageRenditionRepository.clearData(imageDataId);
+  }
+}
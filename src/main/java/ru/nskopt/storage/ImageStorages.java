@@ -0,0 +1,50 @@
+package ru.nskopt.storage;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.nskopt.entities.image.ImageStorageType;
+import ru.nskopt.events.ImageDataReleasedEvent;
+import ru.nskopt.properties.ImageStorageProperties;
+
+/** Looks up the {@link ImageStorage} holding an image and the one new uploads go to. */
+@Slf4j
+@Component
+public class ImageStorages {
+
+  private final Map<ImageStorageType, ImageStorage> storages =
+      new EnumMap<>(ImageStorageType.class);
+  private final ImageStorageType defaultType;
+
+  public ImageStorages(List<ImageStorage> storages, ImageStorageProperties properties) {
+    storages.forEach(storage -> this.storages.put(storage.type(), storage));
+    this.defaultType = properties.getType();
+  }
+
+  /** Storage of an existing image; rows from before storages were introduced are in the DB. */
+  public ImageStorage get(ImageStorageType type) {
+    return storages.get(type != null ? type : ImageStorageType.DATABASE);
+  }
+
+  public ImageStorage getDefault() {
+    return storages.get(defaultType);
+  }
+
+  /** Deletes released bytes once the rows referencing them are gone for good. */
+  @TransactionalEventListener
+  public void onImageDataReleased(ImageDataReleasedEvent event) {
+    for (ImageStorage storage : storages.values()) {
+      for (Long imageDataId : event.imageDataIds()) {
+        try {
+          storage.delete(imageDataId);
+        } catch (IOException e) {
+          log.warn("Failed to delete image data {}: {}", imageDataId, e.getMessage());
+        }
+      }
+    }
+  }
+}
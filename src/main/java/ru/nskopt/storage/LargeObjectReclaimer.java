@@ -0,0 +1,116 @@
+package ru.nskopt.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.nskopt.properties.ImageStorageProperties;
+
+/**
+ * Unlinks PostgreSQL large objects that no column references, like {@code vacuumlo}. Hibernate
+ * stores {@code @Lob byte[]} as large objects and only drops the reference when a row is updated
+ * or deleted, so without this {@code pg_largeobject} grows forever.
+ *
+ * <p>Every {@code oid} column of the database counts as a reference, not only the image ones.
+ * Large objects are unlinked in small batches, each in its own transaction, and are checked for
+ * references in the same statement that unlinks them. Objects written by transactions that have
+ * not committed yet are invisible here, so they are never taken for garbage.
+ */
+@Slf4j
+@Component
+public class LargeObjectReclaimer {
+
+  private static final String OID_COLUMNS =
+      """
+      SELECT quote_ident(table_schema) || '.' || quote_ident(table_name), quote_ident(column_name)
+      FROM information_schema.columns
+      WHERE data_type = 'oid' AND table_schema NOT IN ('pg_catalog', 'information_schema')
+      """;
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final ImageStorageProperties imageStorageProperties;
+
+  private final Counter unlinkedCounter;
+  private final Timer reclaimTimer;
+
+  public LargeObjectReclaimer(
+      JdbcTemplate jdbcTemplate,
+      TransactionTemplate transactionTemplate,
+      ImageStorageProperties imageStorageProperties,
+      MeterRegistry meterRegistry) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = transactionTemplate;
+    this.imageStorageProperties = imageStorageProperties;
+
+    this.unlinkedCounter =
+        Counter.builder("images.largeobjects.unlinked")
+            .description("Unreferenced PostgreSQL large objects unlinked")
+            .register(meterRegistry);
+    this.reclaimTimer =
+        Timer.builder("images.largeobjects.reclaim.duration")
+            .description("Time to unlink a batch of unreferenced large objects")
+            .register(meterRegistry);
+  }
+
+  @Scheduled(
+      initialDelayString = "${app.image.storage.large-object-cleanup-interval:PT1H}",
+      fixedDelayString = "${app.image.storage.large-object-cleanup-interval:PT1H}")
+  public void reclaim() {
+    if (!imageStorageProperties.isLargeObjectCleanupEnabled()) return;
+
+    String unlinkBatch = unlinkBatchStatement();
+    int batchSize = imageStorageProperties.getLargeObjectCleanupBatchSize();
+    long afterOid = 0;
+    long total = 0;
+    List<Long> unlinked;
+
+    do {
+      long from = afterOid;
+      unlinked =
+          reclaimTimer.record(
+              () ->
+                  transactionTemplate.execute(
+                      status ->
+                          jdbcTemplate.queryForList(unlinkBatch, Long.class, from, batchSize)));
+      if (unlinked.isEmpty()) break;
+
+      afterOid = unlinked.get(unlinked.size() - 1);
+      total += unlinked.size();
+      unlinkedCounter.increment(unlinked.size());
+    } while (unlinked.size() == batchSize);
+
+    if (total > 0) log.info("Unlinked {} unreferenced large objects", total);
+  }
+
+  /**
+   * Unlinks up to {@code ?} unreferenced large objects with an OID above {@code ?} and returns
+   * their OIDs in ascending order.
+   */
+  private String unlinkBatchStatement() {
+    String unreferenced =
+        jdbcTemplate
+            .query(
+                OID_COLUMNS,
+                (rs, rowNum) ->
+                    " AND NOT EXISTS (SELECT 1 FROM "
+                        + rs.getString(1)
+                        + " WHERE "
+                        + rs.getString(2)
+                        + " = m.oid)")
+            .stream()
+            .collect(Collectors.joining());
+
+    return "WITH garbage AS MATERIALIZED ("
+        + "SELECT m.oid FROM pg_largeobject_metadata m WHERE m.oid > ?::bigint::oid"
+        + unreferenced
+        + " ORDER BY m.oid LIMIT ?) "
+        + "SELECT g.oid::bigint FROM garbage g WHERE lo_unlink(g.oid) = 1 ORDER BY g.oid";
+  }
+}
@@ -0,0 +1,22 @@
+package ru.nskopt.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public final class HashUtils {
+
+  private HashUtils() {}
+
+  public static String sha256(byte[] data) {
+    return HexFormat.of().formatHex(newSha256().digest(data));
+  }
+
+  public static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package ru.nskopt.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import ru.nskopt.App;
+import ru.nskopt.entities.Category;
+import ru.nskopt.entities.Cost;
+import ru.nskopt.entities.Product;
+import ru.nskopt.entities.image.Image;
+import ru.nskopt.entities.user.Role;
+import ru.nskopt.entities.user.User;
+import ru.nskopt.repositories.CategoryRepository;
+import ru.nskopt.repositories.ImageRepository;
+import ru.nskopt.repositories.ProductRepository;
+import ru.nskopt.repositories.UserRepository;
+import ru.nskopt.services.CatalogCache;
+import ru.nskopt.utils.JwtUtils;
+
+/**
+ * Holds catalog reads to a fixed number of SQL statements, whatever the number of products,
+ * categories and images. The catalog here is large enough that loading images one product or
+ * category at a time would go over every budget. Budgets are for cache misses.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK, classes = App.class)
+@AutoConfigureMockMvc
+@Import(QueryCounter.class)
+class CatalogQueryCountTest {
+
+  private static final int PRODUCTS = 5;
+  private static final int CATEGORIES = 3;
+
+  /** Looking up the user of the token, for requests made as admin. */
+  private static final int AUTHENTICATION = 1;
+
+  @Autowired MockMvc mockMvc;
+
+  @Autowired ProductRepository productRepository;
+  @Autowired CategoryRepository categoryRepository;
+  @Autowired ImageRepository imageRepository;
+  @Autowired UserRepository userRepository;
+  @Autowired JwtUtils jwtUtils;
+  @Autowired PasswordEncoder passwordEncoder;
+  @Autowired CatalogCache catalogCache;
+
+  String adminToken;
+  Category category;
+  Product product;
+
+  @BeforeEach
+  void setUp() {
+    productRepository.deleteAll();
+    categoryRepository.deleteAll();
+    userRepository.deleteAll();
+
+    User admin = new User();
+    admin.setUsername("username123213");
+    admin.setPassword(passwordEncoder.encode("footerNeck8273te"));
+    admin.setRole(Role.ROLE_ADMIN);
+    userRepository.save(admin);
+    adminToken = jwtUtils.generateToken(admin);
+
+    for (int i = 0; i < CATEGORIES; i++) {
+      Category created = new Category();
+      created.setName("Category " + i);
+      created.getImages().addAll(createImages());
+      category = categoryRepository.save(created);
+    }
+
+    for (int i = 0; i < PRODUCTS; i++) {
+      Product created = new Product();
+      created.setName("Product " + i);
+      created.setAvailability(1);
+      created.setCost(new Cost(new BigDecimal("100.00"), new BigDecimal("150.00")));
+      created.getImages().addAll(createImages());
+      created.getCategories().add(category);
+      product = productRepository.save(created);
+    }
+    catalogCache.invalidateAll();
+  }
+
+  private Set<Image> createImages() {
+    Image first = new Image();
+    first.setData("sample data first".getBytes());
+    Image second = new Image();
+    second.setData("sample data second".getBytes());
+    return Set.copyOf(imageRepository.saveAll(List.of(first, second)));
+  }
+
+  private void expectStatements(MockHttpServletRequestBuilder request, int budget)
+      throws Exception {
+    QueryCounter.reset();
+    mockMvc.perform(request).andExpect(status().isOk());
+    int count = QueryCounter.count();
+    assertTrue(count <= budget, "Expected at most " + budget + " statements, got " + count);
+  }
+
+  private MockHttpServletRequestBuilder asAdmin(MockHttpServletRequestBuilder request) {
+    return request.header("Authorization", "Bearer " + adminToken);
+  }
+
+  @Test
+  void getAllProducts() throws Exception {
+    // Page positions, then the products with their images and previews.
+    expectStatements(get("/api/products"), 2);
+  }
+
+  @Test
+  void getAllProducts_admin() throws Exception {
+    expectStatements(asAdmin(get("/api/products")), AUTHENTICATION + 2);
+  }
+
+  @Test
+  void getProductById() throws Exception {
+    expectStatements(get("/api/products/" + product.getId()), 1);
+  }
+
+  @Test
+  void getProductById_admin() throws Exception {
+    expectStatements(asAdmin(get("/api/products/" + product.getId())), AUTHENTICATION + 1);
+  }
+
+  @Test
+  void getProductById_cached() throws Exception {
+    mockMvc.perform(get("/api/products/" + product.getId())).andExpect(status().isOk());
+
+    expectStatements(get("/api/products/" + product.getId()), 0);
+  }
+
+  @Test
+  void getProductImages() throws Exception {
+    expectStatements(get("/api/products/" + product.getId() + "/images"), 1);
+  }
+
+  @Test
+  void getAllCategories() throws Exception {
+    expectStatements(get("/api/categories"), 1);
+  }
+
+  @Test
+  void getAllCategories_admin() throws Exception {
+    expectStatements(asAdmin(get("/api/categories")), AUTHENTICATION + 1);
+  }
+
+  @Test
+  void getCategoryById() throws Exception {
+    expectStatements(get("/api/categories/" + category.getId()), 1);
+  }
+
+  @Test
+  void getCategoryById_admin() throws Exception {
+    expectStatements(asAdmin(get("/api/categories/" + category.getId())), AUTHENTICATION + 1);
+  }
+
+  @Test
+  void getCategoryProducts() throws Exception {
+    expectStatements(get("/api/categories/" + category.getId() + "/products"), 1);
+  }
+}
@@ -0,0 +1,257 @@
+package ru.nskopt.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.nskopt.App;
+import ru.nskopt.dto.product.ProductCursor;
+import ru.nskopt.dto.product.ProductSort;
+import ru.nskopt.dto.product.ProductUpdateRequest;
+import ru.nskopt.entities.Category;
+import ru.nskopt.entities.Cost;
+import ru.nskopt.entities.Product;
+import ru.nskopt.entities.user.Role;
+import ru.nskopt.entities.user.User;
+import ru.nskopt.repositories.CategoryRepository;
+import ru.nskopt.repositories.ProductRepository;
+import ru.nskopt.repositories.UserRepository;
+import ru.nskopt.services.CatalogSnapshotService;
+import ru.nskopt.utils.JwtUtils;
+
+/** Public catalog reads served from the in-memory snapshot, and kept current by writes. */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+    classes = App.class,
+    properties = "app.catalog.snapshot.enabled=true")
+@AutoConfigureMockMvc
+@Import(QueryCounter.class)
+class CatalogSnapshotTest {
+
+  @Autowired MockMvc mockMvc;
+  @Autowired ObjectMapper objectMapper;
+
+  @Autowired ProductRepository productRepository;
+  @Autowired CategoryRepository categoryRepository;
+  @Autowired UserRepository userRepository;
+  @Autowired JwtUtils jwtUtils;
+  @Autowired PasswordEncoder passwordEncoder;
+  @Autowired CatalogSnapshotService catalogSnapshotService;
+
+  String adminToken;
+  Category category;
+  Product cheap;
+  Product middle;
+  Product expensive;
+
+  @BeforeEach
+  void setUp() {
+    productRepository.deleteAll();
+    categoryRepository.deleteAll();
+    userRepository.deleteAll();
+
+    User admin = new User();
+    admin.setUsername("username123213");
+    admin.setPassword(passwordEncoder.encode("footerNeck8273te"));
+    admin.setRole(Role.ROLE_ADMIN);
+    userRepository.save(admin);
+    adminToken = jwtUtils.generateToken(admin);
+
+    Category created = new Category();
+    created.setName("Category");
+    category = categoryRepository.save(created);
+
+    cheap = createProduct("Cheap", new BigDecimal("20.00"), true);
+    expensive = createProduct("Expensive", new BigDecimal("300.00"), true);
+    middle = createProduct("Middle", new BigDecimal("150.00"), false);
+
+    // Rows are written straight to the repositories, past the snapshot updates.
+    catalogSnapshotService.reload();
+  }
+
+  private Product createProduct(String name, BigDecimal retailPrice, boolean inCategory) {
+    Product product = new Product();
+    product.setName(name);
+    product.setAvailability(1);
+    product.setCost(new Cost(new BigDecimal("10.00"), retailPrice));
+    if (inCategory) product.getCategories().add(category);
+    return productRepository.save(product);
+  }
+
+  @Test
+  void getProductById_reads_no_statements() throws Exception {
+    QueryCounter.reset();
+
+    mockMvc
+        .perform(get("/api/products/" + cheap.getId()))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.name").value("Cheap"));
+
+    assertEquals(0, QueryCounter.count());
+  }
+
+  @Test
+  void getProductById_not_found() throws Exception {
+    mockMvc
+        .perform(get("/api/products/" + (expensive.getId() + 100)))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  void getAllProducts_pages_by_price() throws Exception {
+    String response =
+        mockMvc
+            .perform(get("/api/products").param("sort", "PRICE").param("limit", "2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.items.length()").value(2))
+            .andExpect(jsonPath("$.items[0].id").value(cheap.getId()))
+            .andExpect(jsonPath("$.items[1].id").value(middle.getId()))
+            .andExpect(jsonPath("$.nextCursor").isString())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    String cursor = objectMapper.readTree(response).get("nextCursor").asText();
+
+    mockMvc
+        .perform(
+            get("/api/products").param("sort", "PRICE").param("limit", "2").param("cursor", cursor))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.items.length()").value(1))
+        .andExpect(jsonPath("$.items[0].id").value(expensive.getId()))
+        .andExpect(jsonPath("$.nextCursor").doesNotExist());
+  }
+
+  @Test
+  void getAllProducts_pages_by_price_descending() throws Exception {
+    String response =
+        mockMvc
+            .perform(
+                get("/api/products")
+                    .param("sort", "PRICE")
+                    .param("direction", "DESC")
+                    .param("limit", "2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.items[0].id").value(expensive.getId()))
+            .andExpect(jsonPath("$.items[1].id").value(middle.getId()))
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    String cursor = objectMapper.readTree(response).get("nextCursor").asText();
+
+    mockMvc
+        .perform(
+            get("/api/products")
+                .param("sort", "PRICE")
+                .param("direction", "DESC")
+                .param("limit", "2")
+                .param("cursor", cursor))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.items.length()").value(1))
+        .andExpect(jsonPath("$.items[0].id").value(cheap.getId()))
+        .andExpect(jsonPath("$.nextCursor").doesNotExist());
+  }
+
+  @Test
+  void getAllProducts_by_name_matches_sql_order_after_rename() throws Exception {
+    // U+FB01 comes before U+1F600 by code point, but after its surrogates by UTF-16 unit.
+    Product ligature = createProduct("\uFB01", new BigDecimal("50.00"), false);
+    Product emoji = createProduct("\uD83D\uDE00", new BigDecimal("60.00"), false);
+    catalogSnapshotService.reload();
+
+    ProductUpdateRequest request = new ProductUpdateRequest();
+    request.setName("Zed");
+    request.setAvailability(1);
+    request.setCost(new Cost(new BigDecimal("10.00"), new BigDecimal("20.00")));
+    mockMvc
+        .perform(
+            put("/api/products/" + cheap.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + adminToken)
+                .content(objectMapper.writeValueAsString(request)))
+        .andExpect(status().isOk());
+
+    List<Long> expected =
+        List.of(expensive.getId(), middle.getId(), cheap.getId(), ligature.getId(), emoji.getId());
+    List<Long> sqlOrder =
+        productRepository.findPositions(ProductSort.NAME, Sort.Direction.ASC, null, 10).stream()
+            .map(ProductCursor::id)
+            .toList();
+    assertEquals(expected, sqlOrder);
+
+    mockMvc
+        .perform(get("/api/products").param("sort", "NAME"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.items.length()").value(5))
+        .andExpect(jsonPath("$.items[2].id").value(cheap.getId()))
+        .andExpect(jsonPath("$.items[3].id").value(ligature.getId()))
+        .andExpect(jsonPath("$.items[4].id").value(emoji.getId()));
+  }
+
+  @Test
+  void createProduct_is_served_at_once() throws Exception {
+    ProductUpdateRequest request = new ProductUpdateRequest();
+    request.setName("New Product");
+    request.setAvailability(5);
+    request.setCost(new Cost(new BigDecimal("200.00"), new BigDecimal("250.00")));
+
+    String response =
+        mockMvc
+            .perform(
+                post("/api/products")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header("Authorization", "Bearer " + adminToken)
+                    .content(objectMapper.writeValueAsString(request)))
+            .andExpect(status().isCreated())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    long id = objectMapper.readTree(response).get("id").asLong();
+
+    mockMvc
+        .perform(get("/api/products/" + id))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.name").value("New Product"));
+    mockMvc
+        .perform(get("/api/products").param("sort", "PRICE"))
+        .andExpect(jsonPath("$.items.length()").value(4))
+        .andExpect(jsonPath("$.items[2].id").value(id));
+  }
+
+  @Test
+  void updateCategories_updates_category_products() throws Exception {
+    mockMvc
+        .perform(get("/api/categories/" + category.getId() + "/products"))
+        .andExpect(jsonPath("$.length()").value(2));
+
+    mockMvc
+        .perform(
+            put("/api/products/" + middle.getId() + "/categories")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + adminToken)
+                .content(objectMapper.writeValueAsString(List.of(category.getId()))))
+        .andExpect(status().isOk());
+
+    mockMvc
+        .perform(get("/api/categories/" + category.getId() + "/products"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(3))
+        .andExpect(jsonPath("$[1].id").value(expensive.getId()))
+        .andExpect(jsonPath("$[2].id").value(middle.getId()));
+  }
+}
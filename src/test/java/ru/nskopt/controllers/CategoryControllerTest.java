@@ -42,6 +42,7 @@ import ru.nskopt.repositories.CategoryRepository;
 import ru.nskopt.repositories.ImageRepository;
 import ru.nskopt.repositories.ProductRepository;
 import ru.nskopt.repositories.UserRepository;
+import ru.nskopt.services.CatalogCache;
 import ru.nskopt.utils.JwtUtils;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK, classes = App.class)
@@ -59,6 +60,7 @@ class CategoryControllerTest {
   @Autowired PasswordEncoder passwordEncoder;
   @Autowired CategoryMapper categoryMapper;
   @Autowired JwtUtils jwtUtils;
+  @Autowired CatalogCache catalogCache;
 
   Category existsCategory;
   User admin;
@@ -122,6 +124,8 @@ class CategoryControllerTest {
   @BeforeEach
   void setup() {
     refillDb();
+    // Rows are written straight to the repositories, past the cache invalidation.
+    catalogCache.invalidateAll();
     createAdmin();
     createManager();
     createUser();
@@ -1127,6 +1131,14 @@ class CategoryControllerTest {
         .andExpect(jsonPath("$[0].imagesIds[0]").value(existsImage.getId()));
   }
 
+  @Test
+  void getAllCategories_image_previews() throws Exception {
+    mvc.perform(get("/api/categories").contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].images.length()").value(1))
+        .andExpect(jsonPath("$[0].images[0].id").value(existsImage.getId()));
+  }
+
   @Test
   void getAllCategories_empty() throws Exception {
     categoryRepository.deleteAll();
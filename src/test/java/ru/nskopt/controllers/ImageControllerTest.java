@@ -1,13 +1,37 @@
 package ru.nskopt.controllers;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -16,19 +40,44 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.nskopt.App;
+import ru.nskopt.dto.image.CompressedImage;
+import ru.nskopt.entities.Product;
 import ru.nskopt.entities.image.Image;
+import ru.nskopt.entities.image.ImageFormat;
+import ru.nskopt.entities.image.ImageRendition;
+import ru.nskopt.entities.image.ImageStatus;
 import ru.nskopt.entities.user.Role;
 import ru.nskopt.entities.user.User;
+import ru.nskopt.events.ImageProcessedEvent;
+import ru.nskopt.properties.ImageCompressionProperties;
+import ru.nskopt.properties.ImageCompressionProperties.FormatPolicy;
+import ru.nskopt.properties.ImageProcessingProperties;
+import ru.nskopt.properties.ImageResizeProperties;
+import ru.nskopt.repositories.ImageDataRepository;
+import ru.nskopt.repositories.ImageRenditionRepository;
 import ru.nskopt.repositories.ImageRepository;
+import ru.nskopt.repositories.ProductRepository;
 import ru.nskopt.repositories.UserRepository;
+import ru.nskopt.services.ImageCompressor;
+import ru.nskopt.services.ImageDecodeBudget;
+import ru.nskopt.services.ImageMemoryCache;
+import ru.nskopt.services.ImageService;
+import ru.nskopt.services.OrphanImageCollector;
+import ru.nskopt.storage.LargeObjectReclaimer;
 import ru.nskopt.utils.JwtUtils;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK, classes = App.class)
 @AutoConfigureMockMvc
+@RecordApplicationEvents
 class ImageControllerTest {
 
   @Autowired MockMvc mockMvc;
@@ -36,8 +85,26 @@ class ImageControllerTest {
   @Autowired JwtUtils jwtUtils;
 
   @Autowired ImageRepository imageRepository;
+  @Autowired ImageDataRepository imageDataRepository;
+  @Autowired ImageRenditionRepository imageRenditionRepository;
+  @Autowired ProductRepository productRepository;
   @Autowired UserRepository userRepository;
 
+  @Autowired OrphanImageCollector orphanImageCollector;
+  @Autowired LargeObjectReclaimer largeObjectReclaimer;
+  @Autowired TransactionTemplate transactionTemplate;
+  @Autowired JdbcTemplate jdbcTemplate;
+
+  @Autowired ImageService imageService;
+  @Autowired ImageCompressor imageCompressor;
+  @Autowired ImageMemoryCache imageMemoryCache;
+  @Autowired ImageDecodeBudget imageDecodeBudget;
+  @Autowired ImageCompressionProperties imageCompressionProperties;
+  @Autowired ImageProcessingProperties imageProcessingProperties;
+  @Autowired ImageResizeProperties imageResizeProperties;
+  @Autowired MeterRegistry meterRegistry;
+  @Autowired ApplicationEvents applicationEvents;
+
   User admin;
   String adminToken;
 
@@ -79,6 +146,7 @@ class ImageControllerTest {
 
   @BeforeEach
   void beforeEach() {
+    productRepository.deleteAll();
     imageRepository.deleteAll();
     userRepository.deleteAll();
     createAdmin();
@@ -185,6 +253,57 @@ class ImageControllerTest {
           .andExpect(status().isUnsupportedMediaType());
     }
 
+    @Test
+    void getOrphanImages_report_excludes_recent_uploads() throws Exception {
+      Image image = new Image();
+      image.setData("data".getBytes());
+      imageRepository.save(image);
+
+      mockMvc
+          .perform(get("/api/images/orphans").header("Authorization", "Bearer " + adminToken))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.images").value(0))
+          .andExpect(jsonPath("$.createdBefore").exists());
+    }
+
+    @Test
+    void createImages_batch() throws Exception {
+      MockMultipartFile jpg =
+          new MockMultipartFile(
+              "files",
+              "image.jpg",
+              MediaType.IMAGE_JPEG_VALUE,
+              Files.readAllBytes(new File("src/test/resources/images/image.jpg").toPath()));
+      MockMultipartFile gif =
+          new MockMultipartFile(
+              "files",
+              "image.gif",
+              "image/gif",
+              Files.readAllBytes(new File("src/test/resources/images/image.gif").toPath()));
+      MockMultipartFile png =
+          new MockMultipartFile(
+              "files",
+              "image.png",
+              MediaType.IMAGE_PNG_VALUE,
+              Files.readAllBytes(new File("src/test/resources/images/image.png").toPath()));
+
+      mockMvc
+          .perform(
+              multipart("/api/images/batch")
+                  .file(jpg)
+                  .file(gif)
+                  .file(png)
+                  .header("Authorization", "Bearer " + adminToken))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.length()").value(3))
+          .andExpect(jsonPath("$[0].id").isNumber())
+          .andExpect(jsonPath("$[1].id").value(nullValue()))
+          .andExpect(jsonPath("$[1].error").value(containsString("image/gif")))
+          .andExpect(jsonPath("$[2].id").isNumber());
+
+      assertEquals(2, imageRepository.count());
+    }
+
     @Test
     void createImage_unsupported_format_null_content_type() throws Exception {
       String filePath = "src/test/resources/images/image.gif";
@@ -434,6 +553,561 @@ class ImageControllerTest {
     assertArrayEquals(result, image.getData());
   }
 
+  @Test
+  void getImage_accept_without_alternate_falls_back_to_webp() throws Exception {
+    Image image = new Image();
+    image.setData("data".getBytes());
+
+    imageRepository.save(image);
+
+    mockMvc
+        .perform(get("/api/images/" + image.getId()).header("Accept", "image/jpeg"))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Content-Type", "image/webp"))
+        .andExpect(header().string("Vary", containsString("Accept")));
+  }
+
+  @Test
+  void getImage_resized_to_snapped_size_per_format() throws Exception {
+    Image image = new Image();
+    image.setData(uniqueImage("image.webp"));
+
+    imageRepository.save(image);
+
+    // 150x90 is snapped up to 200x100, which no stored rendition has.
+    MockHttpServletResponse jpeg =
+        mockMvc
+            .perform(
+                get("/api/images/" + image.getId())
+                    .param("w", "150")
+                    .param("h", "90")
+                    .header("Accept", "image/jpeg"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("Content-Type", "image/jpeg"))
+            .andExpect(header().string("Vary", containsString("Accept")))
+            .andExpect(header().string("Vary", containsString("Width")))
+            .andExpect(header().string("Accept-CH", "DPR, Width, Save-Data"))
+            .andReturn()
+            .getResponse();
+    BufferedImage resized = ImageIO.read(new ByteArrayInputStream(jpeg.getContentAsByteArray()));
+    assertEquals(200, resized.getWidth());
+    assertEquals(100, resized.getHeight());
+
+    MockHttpServletResponse webp =
+        mockMvc
+            .perform(
+                get("/api/images/" + image.getId())
+                    .param("w", "150")
+                    .param("h", "90")
+                    .header("Accept", "image/webp"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("Content-Type", "image/webp"))
+            .andReturn()
+            .getResponse();
+    assertFalse(jpeg.getHeader("ETag").equals(webp.getHeader("ETag")));
+
+    // One cache entry per format, keyed by the image data and named after the format.
+    String prefix = image.getImageData().getId() + "-";
+    try (Stream<Path> files = Files.list(imageResizeProperties.getCacheDirectory())) {
+      List<String> cached =
+          files
+              .map(file -> file.getFileName().toString())
+              .filter(name -> name.startsWith(prefix))
+              .toList();
+      assertTrue(cached.stream().anyMatch(name -> name.matches(".*-200x100-q\\d+\\.jpeg")));
+      assertTrue(cached.stream().anyMatch(name -> name.matches(".*-200x100-q\\d+\\.webp")));
+    }
+  }
+
+  @Test
+  void getImage_served_from_memory_cache_until_released() throws Exception {
+    Image image = new Image();
+    image.setData(uniqueImage("image.webp"));
+
+    imageRepository.save(image);
+    String contentHash = image.getImageData().getContentHash();
+
+    double hits = memoryCacheHits();
+    for (int i = 0; i < 2; i++)
+      mockMvc.perform(get("/api/images/" + image.getId())).andExpect(status().isOk());
+
+    assertEquals(hits + 1, memoryCacheHits());
+    assertArrayEquals(image.getData(), imageMemoryCache.getIfPresent(contentHash));
+
+    imageRepository.delete(image);
+    imageService.releaseUnreferencedData(List.of(image.getImageData().getId()));
+
+    assertNull(imageMemoryCache.getIfPresent(contentHash));
+  }
+
+  double memoryCacheHits() {
+    return meterRegistry
+        .get("cache.gets")
+        .tag("cache", "images.memory")
+        .tag("result", "hit")
+        .functionCounter()
+        .count();
+  }
+
+  /** Image whose full size is stored in WebP and in a smaller AVIF encoding. */
+  Image imageWithSmallerAvif() {
+    Image image = new Image();
+    image.setData("webp encoding".getBytes());
+
+    imageRepository.save(image);
+
+    ImageRendition avif = new ImageRendition();
+    avif.setImageData(image.getImageData());
+    avif.setName("full");
+    avif.setFormat(ImageFormat.AVIF);
+    avif.setData("avif".getBytes());
+    avif.setDataSize(4);
+    avif.setContentHash(UUID.randomUUID().toString());
+    imageRenditionRepository.save(avif);
+
+    return image;
+  }
+
+  @Test
+  void getImage_avif_and_webp_accepted_smallest_policy() throws Exception {
+    Image image = imageWithSmallerAvif();
+
+    mockMvc
+        .perform(get("/api/images/" + image.getId()).header("Accept", "image/avif,image/webp"))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Content-Type", "image/avif"))
+        .andExpect(header().string("Vary", containsString("Accept")));
+  }
+
+  @Test
+  void getImage_avif_and_webp_accepted_preference_policy() throws Exception {
+    Image image = imageWithSmallerAvif();
+
+    FormatPolicy policy = imageCompressionProperties.getFormatPolicy();
+    imageCompressionProperties.setFormatPolicy(FormatPolicy.PREFERENCE);
+    try {
+      // WebP is a configured format and AVIF is not, so WebP wins although it is larger.
+      mockMvc
+          .perform(get("/api/images/" + image.getId()).header("Accept", "image/avif,image/webp"))
+          .andExpect(status().isOk())
+          .andExpect(header().string("Content-Type", "image/webp"))
+          .andExpect(header().string("Vary", containsString("Accept")));
+    } finally {
+      imageCompressionProperties.setFormatPolicy(policy);
+    }
+  }
+
+  @Test
+  void getImages_multipart() throws Exception {
+    Image first = new Image();
+    first.setData("first".getBytes());
+    Image second = new Image();
+    second.setData("second".getBytes());
+
+    imageRepository.saveAll(List.of(first, second));
+
+    String body =
+        mockMvc
+            .perform(get("/api/images").param("ids", second.getId() + "," + first.getId()))
+            .andExpect(status().isOk())
+            .andExpect(header().string("Content-Type", startsWith("multipart/mixed")))
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+
+    assertTrue(body.contains("Content-ID: <" + second.getId() + ">"));
+    assertTrue(body.indexOf("second") < body.indexOf("first"));
+  }
+
+  @Test
+  void getImage_etag_and_not_modified() throws Exception {
+    Image image = new Image();
+    image.setData("data".getBytes());
+
+    imageRepository.save(image);
+
+    String etag =
+        mockMvc
+            .perform(get("/api/images/" + image.getId()))
+            .andExpect(status().isOk())
+            .andExpect(header().exists("ETag"))
+            .andExpect(header().string("Cache-Control", containsString("immutable")))
+            .andReturn()
+            .getResponse()
+            .getHeader("ETag");
+
+    byte[] result =
+        mockMvc
+            .perform(get("/api/images/" + image.getId()).header("If-None-Match", etag))
+            .andExpect(status().isNotModified())
+            .andExpect(header().string("ETag", etag))
+            .andReturn()
+            .getResponse()
+            .getContentAsByteArray();
+
+    assertEquals(0, result.length);
+  }
+
+  @Test
+  void getImage_range() throws Exception {
+    Image image = new Image();
+    image.setData("0123456789".getBytes());
+
+    imageRepository.save(image);
+
+    byte[] result =
+        mockMvc
+            .perform(get("/api/images/" + image.getId()).header("Range", "bytes=2-5"))
+            .andExpect(status().isPartialContent())
+            .andExpect(header().string("Content-Range", "bytes 2-5/10"))
+            .andExpect(header().string("Accept-Ranges", "bytes"))
+            .andReturn()
+            .getResponse()
+            .getContentAsByteArray();
+
+    assertArrayEquals("2345".getBytes(), result);
+
+    mockMvc
+        .perform(get("/api/images/" + image.getId()).header("Range", "bytes=20-"))
+        .andExpect(status().isRequestedRangeNotSatisfiable())
+        .andExpect(header().string("Content-Range", "bytes */10"));
+  }
+
+  @Test
+  void getImage_range_if_range_mismatch() throws Exception {
+    Image image = new Image();
+    image.setData("0123456789".getBytes());
+
+    imageRepository.save(image);
+
+    byte[] result =
+        mockMvc
+            .perform(
+                get("/api/images/" + image.getId())
+                    .header("Range", "bytes=2-5")
+                    .header("If-Range", "\"stale\""))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getContentAsByteArray();
+
+    assertArrayEquals(image.getData(), result);
+  }
+
+  @Test
+  void getImage_processing() throws Exception {
+    Image image = new Image();
+    image.getImageData().setStatus(ImageStatus.PROCESSING);
+
+    imageRepository.save(image);
+
+    mockMvc
+        .perform(get("/api/images/" + image.getId()))
+        .andExpect(status().isAccepted())
+        .andExpect(header().exists("Retry-After"));
+  }
+
+  @Test
+  void collectOrphans_after_grace_period() {
+    Image attached = new Image();
+    attached.setData("attached".getBytes());
+    Image sharingOrphan = new Image();
+    Image oldOrphan = new Image();
+    oldOrphan.setData("old".getBytes());
+    Image recentOrphan = new Image();
+    recentOrphan.setData("recent".getBytes());
+
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          Product product = new Product();
+          product.setName("Product");
+          product.getImages().add(attached);
+          productRepository.save(product);
+
+          // Uploaded from the same source as the attached image.
+          sharingOrphan.setImageData(attached.getImageData());
+          imageRepository.saveAll(List.of(sharingOrphan, oldOrphan, recentOrphan));
+        });
+    jdbcTemplate.update(
+        "UPDATE images SET created_at = now() - interval '30 days' WHERE id IN (?, ?, ?)",
+        attached.getId(),
+        sharingOrphan.getId(),
+        oldOrphan.getId());
+
+    assertEquals(2, orphanImageCollector.collect());
+
+    assertTrue(imageRepository.existsById(attached.getId()));
+    assertTrue(imageRepository.existsById(recentOrphan.getId()));
+    assertFalse(imageRepository.existsById(sharingOrphan.getId()));
+    assertFalse(imageRepository.existsById(oldOrphan.getId()));
+
+    assertTrue(imageDataRepository.existsById(attached.getImageData().getId()));
+    assertTrue(imageDataRepository.existsById(recentOrphan.getImageData().getId()));
+    assertFalse(imageDataRepository.existsById(oldOrphan.getImageData().getId()));
+  }
+
+  /**
+   * Test image followed by a random trailer, so its upload is never deduplicated against data left
+   * by other tests. Decoders stop at the end of the image and ignore the trailer.
+   */
+  static byte[] uniqueImage(String name) throws IOException {
+    byte[] image = Files.readAllBytes(Path.of("src/test/resources/images", name));
+    byte[] trailer = UUID.randomUUID().toString().getBytes(StandardCharsets.US_ASCII);
+    byte[] unique = Arrays.copyOf(image, image.length + trailer.length);
+    System.arraycopy(trailer, 0, unique, image.length, trailer.length);
+    return unique;
+  }
+
+  double reservedDecodeBudget() {
+    return meterRegistry.get("images.admission.reserved").gauge().value();
+  }
+
+  /** Waits for uploads of earlier tests to finish processing and give their reservations back. */
+  void awaitIdleDecodeBudget() throws InterruptedException {
+    for (int i = 0; i < 100 && reservedDecodeBudget() > 0; i++) Thread.sleep(100);
+    assertEquals(0, reservedDecodeBudget());
+  }
+
+  @Test
+  void createImage_failure_releases_decode_budget() throws Exception {
+    awaitIdleDecodeBudget();
+    MockMultipartFile unreadable =
+        new MockMultipartFile(
+            "file", "image.png", MediaType.IMAGE_PNG_VALUE, uniqueImage("image.png")) {
+          @Override
+          public byte[] getBytes() throws IOException {
+            throw new IOException("connection reset");
+          }
+        };
+
+    assertThrows(
+        Exception.class,
+        () ->
+            mockMvc.perform(
+                multipart("/api/images")
+                    .file(unreadable)
+                    .header("Authorization", "Bearer " + adminToken)));
+
+    assertEquals(0, reservedDecodeBudget());
+  }
+
+  @Test
+  void createImage_decode_budget_exhausted() throws Exception {
+    awaitIdleDecodeBudget();
+    long budget = imageProcessingProperties.getDecodeBudget().toBytes();
+    MockMultipartFile multipartFile =
+        new MockMultipartFile(
+            "file", "image.png", MediaType.IMAGE_PNG_VALUE, uniqueImage("image.png"));
+
+    imageDecodeBudget.reserve(budget);
+    try {
+      mockMvc
+          .perform(
+              multipart("/api/images")
+                  .file(multipartFile)
+                  .header("Authorization", "Bearer " + adminToken))
+          .andExpect(status().isTooManyRequests())
+          .andExpect(
+              header()
+                  .string(
+                      "Retry-After",
+                      String.valueOf(
+                          imageProcessingProperties.getAdmissionRetryAfter().toSeconds())));
+    } finally {
+      imageDecodeBudget.release(budget);
+    }
+
+    assertEquals(0, reservedDecodeBudget());
+  }
+
+  Long upload(byte[] content, String mediaType) throws Exception {
+    MockMultipartFile multipartFile = new MockMultipartFile("file", "image", mediaType, content);
+
+    String responseContent =
+        mockMvc
+            .perform(
+                multipart("/api/images")
+                    .file(multipartFile)
+                    .header("Authorization", "Bearer " + adminToken))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+
+    return Long.parseLong(responseContent);
+  }
+
+  Long imageDataIdOf(Long imageId) {
+    return jdbcTemplate.queryForObject(
+        "SELECT image_data_id FROM images WHERE id = ?", Long.class, imageId);
+  }
+
+  /** Waits until the upload has been compressed and its renditions can be served. */
+  void awaitProcessed(Long imageId) throws Exception {
+    for (int i = 0; i < 100; i++) {
+      MockHttpServletResponse response =
+          mockMvc.perform(get("/api/images/" + imageId)).andReturn().getResponse();
+      if (response.getStatus() != 202) return;
+      Thread.sleep(100);
+    }
+    fail("image " + imageId + " still processing");
+  }
+
+  BufferedImage getImage(Long imageId, String size) throws Exception {
+    byte[] content =
+        mockMvc
+            .perform(get("/api/images/" + imageId).param("size", size))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getContentAsByteArray();
+    return ImageIO.read(new ByteArrayInputStream(content));
+  }
+
+  @Test
+  void getImage_by_size_name_serves_rendition() throws Exception {
+    Long id = upload(uniqueImage("image.png"), MediaType.IMAGE_PNG_VALUE);
+    awaitProcessed(id);
+
+    assertEquals(200, getImage(id, "thumb").getWidth());
+    assertEquals(500, getImage(id, "medium").getWidth());
+    assertTrue(getImage(id, "full").getWidth() > 500);
+
+    mockMvc
+        .perform(get("/api/images/" + id).param("size", "huge"))
+        .andExpect(status().isNotFound());
+  }
+
+  /**
+   * PNG whose header declares the given dimensions, followed by a few bytes of pixel data that do
+   * not decode.
+   */
+  static byte[] pngHeader(int width, int height) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+
+    ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+    DataOutputStream fields = new DataOutputStream(ihdr);
+    fields.writeInt(width);
+    fields.writeInt(height);
+    // 8-bit RGBA, default compression, filter and interlacing.
+    fields.write(new byte[] {8, 6, 0, 0, 0});
+
+    writeChunk(output, "IHDR", ihdr.toByteArray());
+    writeChunk(output, "IDAT", new byte[] {1, 2, 3, 4});
+    writeChunk(output, "IEND", new byte[0]);
+    return bytes.toByteArray();
+  }
+
+  static void writeChunk(DataOutputStream output, String type, byte[] data) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(type.getBytes(StandardCharsets.US_ASCII));
+    crc.update(data);
+
+    output.writeInt(data.length);
+    output.writeBytes(type);
+    output.write(data);
+    output.writeInt((int) crc.getValue());
+  }
+
+  @Test
+  void createImage_decompression_bomb_rejected_from_header() throws Exception {
+    // 2.5 gigapixels declared in a body of a few dozen bytes.
+    MockMultipartFile bomb =
+        new MockMultipartFile(
+            "file", "bomb.png", MediaType.IMAGE_PNG_VALUE, pngHeader(50000, 50000));
+
+    mockMvc
+        .perform(
+            multipart("/api/images").file(bomb).header("Authorization", "Bearer " + adminToken))
+        .andExpect(status().isUnprocessableEntity())
+        .andExpect(jsonPath("$.error").value(containsString("50000x50000")));
+
+    assertEquals(0, imageRepository.count());
+  }
+
+  @Test
+  void replaceEncoding_swaps_image_data_when_smaller() throws Exception {
+    Long id = upload(uniqueImage("image.png"), MediaType.IMAGE_PNG_VALUE);
+    awaitProcessed(id);
+    Long imageDataId = imageDataIdOf(id);
+
+    // As if the image had been stored by older settings that encoded it ten times larger.
+    jdbcTemplate.update(
+        "UPDATE images_data SET data_size = data_size * 10 WHERE id = ?", imageDataId);
+    byte[] original = imageService.readOriginal(imageDataId);
+    CompressedImage compressed = imageCompressor.compress(original);
+
+    assertTrue(imageService.replaceEncoding(imageDataId, original, compressed) > 0);
+
+    Long replacementId = imageDataIdOf(id);
+    assertFalse(imageDataId.equals(replacementId));
+    assertFalse(imageDataRepository.existsById(imageDataId));
+    assertTrue(
+        applicationEvents.stream(ImageProcessedEvent.class)
+            .anyMatch(event -> event.imageDataId().equals(replacementId)));
+    mockMvc.perform(get("/api/images/" + id)).andExpect(status().isOk());
+
+    // The same encoding again is no smaller, so it is kept.
+    assertEquals(-1, imageService.replaceEncoding(replacementId, original, compressed));
+    assertEquals(replacementId, imageDataIdOf(id));
+  }
+
+  @Test
+  void createImage_same_source_shares_image_data() throws Exception {
+    byte[] content = uniqueImage("image.png");
+
+    Long first = upload(content, MediaType.IMAGE_PNG_VALUE);
+    Long second = upload(content, MediaType.IMAGE_PNG_VALUE);
+
+    assertFalse(first.equals(second));
+    assertEquals(imageDataIdOf(first), imageDataIdOf(second));
+    assertEquals(
+        1,
+        jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM images_data WHERE source_key = "
+                + "(SELECT source_key FROM images_data WHERE id = ?)",
+            Integer.class,
+            imageDataIdOf(first)));
+  }
+
+  @Test
+  void reclaimLargeObjects_unlinks_only_unreferenced() throws Exception {
+    Image image = new Image();
+    image.setData("referenced".getBytes());
+
+    imageRepository.save(image);
+    Long referenced =
+        jdbcTemplate.queryForObject(
+            "SELECT data::bigint FROM images_data WHERE id = ?",
+            Long.class,
+            image.getImageData().getId());
+    Long unreferenced =
+        jdbcTemplate.queryForObject(
+            "SELECT lo_from_bytea(0, 'unreferenced'::bytea)::bigint", Long.class);
+
+    largeObjectReclaimer.reclaim();
+
+    assertFalse(largeObjectExists(unreferenced));
+    assertTrue(largeObjectExists(referenced));
+    byte[] result =
+        mockMvc
+            .perform(get("/api/images/" + image.getId()))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getContentAsByteArray();
+    assertArrayEquals("referenced".getBytes(), result);
+  }
+
+  boolean largeObjectExists(Long oid) {
+    return jdbcTemplate.queryForObject(
+        "SELECT EXISTS (SELECT 1 FROM pg_largeobject_metadata WHERE oid::bigint = ?)",
+        Boolean.class,
+        oid);
+  }
+
   @Test
   void getImage_not_found() throws Exception {
     mockMvc
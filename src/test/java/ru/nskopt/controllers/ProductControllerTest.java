@@ -38,6 +38,7 @@ import ru.nskopt.repositories.CategoryRepository;
 import ru.nskopt.repositories.ImageRepository;
 import ru.nskopt.repositories.ProductRepository;
 import ru.nskopt.repositories.UserRepository;
+import ru.nskopt.services.CatalogCache;
 import ru.nskopt.utils.JwtUtils;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK, classes = App.class)
@@ -54,6 +55,7 @@ class ProductControllerTest {
   @Autowired PasswordEncoder passwordEncoder;
 
   @Autowired ObjectMapper objectMapper;
+  @Autowired CatalogCache catalogCache;
 
   User admin;
   String adminToken;
@@ -72,6 +74,8 @@ class ProductControllerTest {
   void setUp() {
     productRepository.deleteAll();
     userRepository.deleteAll();
+    // Rows are written straight to the repositories, past the cache invalidation.
+    catalogCache.invalidateAll();
     createAdmin();
   }
 
@@ -760,8 +764,52 @@ class ProductControllerTest {
     mockMvc
         .perform(get("/api/products").contentType(MediaType.APPLICATION_JSON))
         .andExpect(status().isOk())
-        .andExpect(jsonPath("$[0].name").value(product.getName()))
-        .andExpect(jsonPath("$[0].price").value(150.0));
+        .andExpect(jsonPath("$.items[0].name").value(product.getName()))
+        .andExpect(jsonPath("$.items[0].price").value(150.0));
+  }
+
+  @Test
+  void getAllProducts_pages_by_price() throws Exception {
+    Product cheap =
+        createProduct("Cheap", 1, "Description", new BigDecimal("10.00"), new BigDecimal("20.00"));
+    Product expensive =
+        createProduct(
+            "Expensive", 1, "Description", new BigDecimal("100.00"), new BigDecimal("300.00"));
+    Product middle =
+        createProduct(
+            "Middle", 1, "Description", new BigDecimal("50.00"), new BigDecimal("150.00"));
+
+    String response =
+        mockMvc
+            .perform(get("/api/products").param("sort", "PRICE").param("limit", "2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.items.length()").value(2))
+            .andExpect(jsonPath("$.items[0].id").value(cheap.getId()))
+            .andExpect(jsonPath("$.items[1].id").value(middle.getId()))
+            .andExpect(jsonPath("$.nextCursor").isString())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    String cursor = objectMapper.readTree(response).get("nextCursor").asText();
+
+    mockMvc
+        .perform(
+            get("/api/products").param("sort", "PRICE").param("limit", "2").param("cursor", cursor))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.items.length()").value(1))
+        .andExpect(jsonPath("$.items[0].id").value(expensive.getId()))
+        .andExpect(jsonPath("$.nextCursor").doesNotExist());
+
+    mockMvc
+        .perform(
+            get("/api/products").param("sort", "NAME").param("limit", "2").param("cursor", cursor))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.error").exists());
+  }
+
+  @Test
+  void getAllProducts_limit_too_large() throws Exception {
+    mockMvc.perform(get("/api/products").param("limit", "1000")).andExpect(status().isBadRequest());
   }
 
   @Test
@@ -821,16 +869,16 @@ class ProductControllerTest {
     mockMvc
         .perform(get("/api/products").contentType(MediaType.APPLICATION_JSON))
         .andExpect(status().isOk())
-        .andExpect(jsonPath("$[0].id").value(product1.getId()))
-        .andExpect(jsonPath("$[0].name").value(product1.getName()))
-        .andExpect(jsonPath("$[0].availability").value(product1.getAvailability()))
-        .andExpect(jsonPath("$[0].description").value(product1.getDescription()))
-        .andExpect(jsonPath("$[0].price").value(150.0))
-        .andExpect(jsonPath("$[1].id").value(product2.getId()))
-        .andExpect(jsonPath("$[1].name").value(product2.getName()))
-        .andExpect(jsonPath("$[1].availability").value(product2.getAvailability()))
-        .andExpect(jsonPath("$[1].description").value(product2.getDescription()))
-        .andExpect(jsonPath("$[1].price").value(250.0));
+        .andExpect(jsonPath("$.items[0].id").value(product1.getId()))
+        .andExpect(jsonPath("$.items[0].name").value(product1.getName()))
+        .andExpect(jsonPath("$.items[0].availability").value(product1.getAvailability()))
+        .andExpect(jsonPath("$.items[0].description").value(product1.getDescription()))
+        .andExpect(jsonPath("$.items[0].price").value(150.0))
+        .andExpect(jsonPath("$.items[1].id").value(product2.getId()))
+        .andExpect(jsonPath("$.items[1].name").value(product2.getName()))
+        .andExpect(jsonPath("$.items[1].availability").value(product2.getAvailability()))
+        .andExpect(jsonPath("$.items[1].description").value(product2.getDescription()))
+        .andExpect(jsonPath("$.items[1].price").value(250.0));
   }
 
   @Test
@@ -0,0 +1,82 @@
+package ru.nskopt.controllers;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Counts the SQL statements prepared on the current thread, by Hibernate and JdbcTemplate alike,
+ * so tests can hold endpoints to a query budget. MockMvc handles requests on the test thread;
+ * statements of background jobs run elsewhere and are not counted.
+ */
+@TestConfiguration(proxyBeanMethods = false)
+class QueryCounter {
+
+  private static final Set<String> STATEMENT_METHODS =
+      Set.of("createStatement", "prepareStatement", "prepareCall");
+
+  private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+  static void reset() {
+    COUNT.get()[0] = 0;
+  }
+
+  static int count() {
+    return COUNT.get()[0];
+  }
+
+  @Bean
+  static BeanPostProcessor countingDataSourcePostProcessor() {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        return bean instanceof DataSource dataSource ? countingDataSource(dataSource) : bean;
+      }
+    };
+  }
+
+  private static DataSource countingDataSource(DataSource target) {
+    return proxy(
+        DataSource.class,
+        (method, args) -> {
+          Object result = invoke(target, method, args);
+          return result instanceof Connection connection ? countingConnection(connection) : result;
+        });
+  }
+
+  private static Connection countingConnection(Connection target) {
+    return proxy(
+        Connection.class,
+        (method, args) -> {
+          if (STATEMENT_METHODS.contains(method.getName())) COUNT.get()[0]++;
+          return invoke(target, method, args);
+        });
+  }
+
+  @FunctionalInterface
+  private interface Handler {
+    Object handle(Method method, Object[] args) throws Throwable;
+  }
+
+  private static <T> T proxy(Class<T> type, Handler handler) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            QueryCounter.class.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> handler.handle(method, args)));
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
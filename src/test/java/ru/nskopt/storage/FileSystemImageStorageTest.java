@@ -0,0 +1,84 @@
+package ru.nskopt.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.nskopt.properties.ImageStorageProperties;
+
+class FileSystemImageStorageTest {
+
+  @TempDir Path directory;
+
+  FileSystemImageStorage storage;
+
+  @BeforeEach
+  void setUp() {
+    ImageStorageProperties properties = new ImageStorageProperties();
+    properties.setDirectory(directory);
+    storage = new FileSystemImageStorage(properties);
+  }
+
+  @Test
+  void write_and_copy_round_trip() throws IOException {
+    byte[] data = "0123456789".getBytes();
+
+    storage.write(300L, ImageStorage.ORIGINAL, data);
+
+    assertArrayEquals(data, read(300L, ImageStorage.ORIGINAL));
+    assertEquals(10, storage.size(300L, ImageStorage.ORIGINAL));
+    assertTrue(storage.localFile(300L, ImageStorage.ORIGINAL).isPresent());
+
+    ByteArrayOutputStream range = new ByteArrayOutputStream();
+    assertTrue(storage.copyTo(300L, ImageStorage.ORIGINAL, 2, 4, range));
+    assertArrayEquals("2345".getBytes(), range.toByteArray());
+
+    storage.write(300L, "thumb", new ByteArrayInputStream("thumb".getBytes()));
+    assertArrayEquals("thumb".getBytes(), read(300L, "thumb"));
+
+    storage.delete(300L);
+    assertFalse(storage.copyTo(300L, ImageStorage.ORIGINAL, new ByteArrayOutputStream()));
+    assertEquals(-1, storage.size(300L, ImageStorage.ORIGINAL));
+  }
+
+  @Test
+  void write_failure_keeps_previous_file() throws IOException {
+    storage.write(300L, ImageStorage.ORIGINAL, "previous".getBytes());
+
+    InputStream broken =
+        new SequenceInputStream(
+            new ByteArrayInputStream("partial".getBytes()),
+            new InputStream() {
+              @Override
+              public int read() throws IOException {
+                throw new IOException("connection reset");
+              }
+            });
+    assertThrows(IOException.class, () -> storage.write(300L, ImageStorage.ORIGINAL, broken));
+
+    // The file is only replaced once it has been written completely.
+    assertArrayEquals("previous".getBytes(), read(300L, ImageStorage.ORIGINAL));
+    try (Stream<Path> files = Files.walk(directory)) {
+      assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+    }
+  }
+
+  private byte[] read(Long imageDataId, String variant) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    assertTrue(storage.copyTo(imageDataId, variant, outputStream));
+    return outputStream.toByteArray();
+  }
+}
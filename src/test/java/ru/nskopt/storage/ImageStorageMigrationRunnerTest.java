@@ -0,0 +1,77 @@
+package ru.nskopt.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import ru.nskopt.App;
+import ru.nskopt.entities.image.Image;
+import ru.nskopt.entities.image.ImageStorageType;
+import ru.nskopt.repositories.ImageDataRepository;
+import ru.nskopt.repositories.ImageRepository;
+import ru.nskopt.services.ImageCompressor;
+
+/** Moving images from the database to files, with uploads going to files already. */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+    classes = App.class,
+    properties = {
+      "app.image.storage.type=filesystem",
+      "app.image.storage.directory=build/image-storage"
+    })
+class ImageStorageMigrationRunnerTest {
+
+  @Autowired ImageStorageMigrationRunner imageStorageMigrationRunner;
+  @Autowired ImageStorages imageStorages;
+  @Autowired ImageRepository imageRepository;
+  @Autowired ImageDataRepository imageDataRepository;
+
+  @Test
+  void migrate_resumes_where_it_stopped() throws IOException {
+    Long moved = createInDatabase("moved");
+    migrate();
+
+    // A run that wrote the files of an image but stopped before committing its move.
+    Long interrupted = createInDatabase("interrupted");
+    ImageStorage fileSystem = imageStorages.get(ImageStorageType.FILESYSTEM);
+    fileSystem.write(interrupted, ImageStorage.ORIGINAL, "partial".getBytes());
+
+    migrate();
+
+    for (Long id : List.of(moved, interrupted)) {
+      assertEquals(ImageStorageType.FILESYSTEM, imageDataRepository.findStorageById(id));
+      assertFalse(imageDataRepository.findIdsStoredInDatabase(id - 1, Limit.of(1)).contains(id));
+    }
+    assertArrayEquals("moved original".getBytes(), read(moved, ImageStorage.ORIGINAL));
+    assertArrayEquals("interrupted original".getBytes(), read(interrupted, ImageStorage.ORIGINAL));
+    assertArrayEquals("interrupted".getBytes(), read(interrupted, ImageCompressor.FULL));
+  }
+
+  private Long createInDatabase(String data) {
+    Image image = new Image();
+    image.setData(data.getBytes());
+    image.getImageData().setOriginal((data + " original").getBytes());
+    return imageRepository.save(image).getImageData().getId();
+  }
+
+  private void migrate() {
+    imageStorageMigrationRunner.run(
+        new DefaultApplicationArguments("--" + ImageStorageMigrationRunner.OPTION));
+  }
+
+  private byte[] read(Long imageDataId, String variant) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    assertTrue(
+        imageStorages.get(ImageStorageType.FILESYSTEM).copyTo(imageDataId, variant, outputStream));
+    return outputStream.toByteArray();
+  }
+}